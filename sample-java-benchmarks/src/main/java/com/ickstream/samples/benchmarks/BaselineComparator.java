@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files measured on the same machine and prints how the score of each benchmark changed.
+ * <p/>
+ * Usage: BaselineComparator referenceFile resultFile [thresholdPercent]
+ * <p/>
+ * Both files are JMH results in JSON format, as written by running the benchmarks with
+ * "java -jar target/benchmarks.jar -rf json -rff result.json". A benchmark is reported as slower or faster if its
+ * score differs from the reference by more than the threshold percentage (default 10) plus the error margins of
+ * both measurements.
+ * <p/>
+ * No reference results are kept in the source tree, scores are only comparable when measured with the same JMH
+ * version, JDK and machine. The comparison is only as good as the two runs given to it, so it is a tool to look at
+ * the effect of a change and not a check which detects regressions on its own.
+ */
+public class BaselineComparator {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparator referenceFile resultFile [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, JsonNode> references = index(mapper.readTree(new File(args[0])));
+        Map<String, JsonNode> results = index(mapper.readTree(new File(args[1])));
+
+        int slower = 0;
+        int faster = 0;
+        for (Map.Entry<String, JsonNode> entry : results.entrySet()) {
+            JsonNode result = entry.getValue().get("primaryMetric");
+            JsonNode reference = references.get(entry.getKey()) != null ? references.get(entry.getKey()).get("primaryMetric") : null;
+            if (reference == null) {
+                System.out.println(String.format("NEW     %s: %.3f %s", entry.getKey(), result.get("score").asDouble(), result.get("scoreUnit").asText()));
+                continue;
+            }
+            double score = result.get("score").asDouble();
+            double referenceScore = reference.get("score").asDouble();
+            double margin = errorOf(result) + errorOf(reference) + Math.abs(referenceScore) * threshold / 100;
+            boolean higherIsBetter = "thrpt".equals(entry.getValue().get("mode").asText());
+            double worsening = higherIsBetter ? referenceScore - score : score - referenceScore;
+            double change = referenceScore != 0 ? (score - referenceScore) * 100 / referenceScore : 0;
+            String status = "SAME   ";
+            if (worsening > margin) {
+                status = "SLOWER ";
+                slower++;
+            } else if (-worsening > margin) {
+                status = "FASTER ";
+                faster++;
+            }
+            System.out.println(String.format("%s %s: %.3f -> %.3f %s (%+.1f%%)", status, entry.getKey(), referenceScore, score, result.get("scoreUnit").asText(), change));
+        }
+        for (String key : references.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.println("MISSING " + key);
+            }
+        }
+        System.out.println(slower + " slower, " + faster + " faster");
+    }
+
+    /**
+     * Index results by benchmark name, mode and parameters
+     */
+    private static Map<String, JsonNode> index(JsonNode results) {
+        Map<String, JsonNode> index = new LinkedHashMap<String, JsonNode>();
+        if (results == null || !results.isArray()) {
+            return index;
+        }
+        for (JsonNode result : results) {
+            StringBuilder key = new StringBuilder(result.get("benchmark").asText()).append(" [").append(result.get("mode").asText());
+            JsonNode params = result.get("params");
+            if (params != null) {
+                Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> param = fields.next();
+                    key.append(", ").append(param.getKey()).append("=").append(param.getValue().asText());
+                }
+            }
+            index.put(key.append("]").toString(), result);
+        }
+        return index;
+    }
+
+    private static double errorOf(JsonNode metric) {
+        JsonNode error = metric.get("scoreError");
+        // Single iteration results report NaN as error
+        return error != null && error.isNumber() && !Double.isNaN(error.asDouble()) ? error.asDouble() : 0;
+    }
+}
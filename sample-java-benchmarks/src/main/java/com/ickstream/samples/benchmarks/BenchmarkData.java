@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Messages used as input by the benchmarks
+ */
+public final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * Create a Player Protocol setTracks request which replaces the playback queue
+     *
+     * @param id    The request identity
+     * @param count Number of tracks in the playback queue
+     * @return The request
+     */
+    public static String setTracksRequest(int id, int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"jsonrpc\":\"2.0\",\"id\":").append(id).append(",\"method\":\"setTracks\",\"params\":{\"playbackQueuePos\":0,\"items\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":\"benchmark:track-").append(i).append("\",")
+                    .append("\"text\":\"Benchmark Track ").append(i + 1).append("\",")
+                    .append("\"type\":\"track\",")
+                    .append("\"image\":\"http://example.com/images/").append(i).append(".jpg\",")
+                    .append("\"streamingRefs\":[{\"format\":\"audio/mpeg\",\"url\":\"http://example.com/tracks/").append(i).append(".mp3\"}],")
+                    .append("\"itemAttributes\":{\"duration\":").append(180 + i % 120).append(",\"trackNumber\":").append(i % 20 + 1)
+                    .append(",\"album\":{\"id\":\"benchmark:album-").append(i / 10).append("\",\"name\":\"Benchmark Album\"}")
+                    .append(",\"mainArtists\":[{\"id\":\"benchmark:artist-").append(i / 50).append("\",\"name\":\"Benchmark Artist\"}]}}");
+        }
+        sb.append("]}}");
+        return sb.toString();
+    }
+
+    /**
+     * Create a JSON-RPC request without parameters
+     *
+     * @param id     The request identity
+     * @param method The method
+     * @return The request
+     */
+    public static String request(int id, String method) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"method\":\"" + method + "\"}";
+    }
+
+    /**
+     * Create a getPlayerConfiguration response as sent by a player
+     *
+     * @param id The identity of the request
+     * @return The response
+     */
+    public static String playerConfigurationResponse(int id) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"result\":{\"playerName\":\"Benchmark Player\",\"playerModel\":\"SamplePlayer\"," +
+                "\"hardwareId\":\"00:11:22:33:44:55\",\"cloudCoreUrl\":\"https://api.ickstream.com/ickstream-cloud-core/jsonrpc\"}}";
+    }
+
+    /**
+     * Create a playerStatusChanged notification as sent by a player
+     *
+     * @return The notification
+     */
+    public static String playerStatusNotification() {
+        return "{\"jsonrpc\":\"2.0\",\"method\":\"playerStatusChanged\",\"params\":{\"playing\":true,\"playbackQueuePos\":3," +
+                "\"seekPos\":42.5,\"volumeLevel\":0.5,\"muted\":false,\"playbackQueueMode\":\"QUEUE\",\"cloudCoreStatus\":\"UNREGISTERED\"," +
+                "\"track\":{\"id\":\"benchmark:track-3\",\"text\":\"Benchmark Track 4\",\"type\":\"track\"}}}";
+    }
+
+    public static byte[] bytes(String message) {
+        try {
+            return message.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // All platforms support UTF-8
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.benchmarks;
+
+import com.ickstream.common.ickp2p.ServiceType;
+import com.ickstream.common.jsonrpc.JsonHelper;
+import com.ickstream.common.jsonrpc.JsonRpcResponse;
+import com.ickstream.common.jsonrpc.JsonRpcResponseHandler;
+import com.ickstream.samples.controller.MessageDecoder;
+import com.ickstream.samples.controller.ResponseCorrelationTable;
+import com.ickstream.samples.controller.SampleController;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+
+/**
+ * Cost of routing incoming messages in the controller.
+ * <p/>
+ * The routing steps done by {@link SampleController#onMessage} on the event loop are measured one by one, and the
+ * decoding is compared to the previous decoding which created a String, a JsonHelper and a full JSON tree for every
+ * message. Run with "-prof gc" to see the allocation rate per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerMessageBenchmark {
+    private static final String PLAYER_ID = "BENCHMARK-PLAYER";
+
+    private final MessageDecoder decoder = new MessageDecoder();
+    private ResponseCorrelationTable correlationTable;
+    private JsonRpcResponseHandler handler;
+    private byte[] request;
+    private byte[] response;
+    private byte[] notification;
+
+    /**
+     * A controller running on a network without any players, so incoming notifications are only decoded far enough
+     * to find out that nobody is interested in them. Metrics are disabled and no shutdown hook is installed, so
+     * the controller doesn't touch JMX or the file system.
+     */
+    @State(Scope.Benchmark)
+    public static class ControllerState {
+        private SampleController controller;
+
+        @Setup
+        public void setup() throws BackingStoreException, InterruptedException {
+            controller = new SampleController(new NullIckP2p());
+            if (!controller.start(null)) {
+                throw new IllegalStateException("Unable to start controller");
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            controller.shutdown();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        correlationTable = new ResponseCorrelationTable(60, TimeUnit.SECONDS);
+        handler = new JsonRpcResponseHandler() {
+            @Override
+            public boolean onResponse(JsonRpcResponse response) {
+                return true;
+            }
+        };
+        request = BenchmarkData.bytes(BenchmarkData.request(1, "getPlayerConfiguration"));
+        response = BenchmarkData.bytes(BenchmarkData.playerConfigurationResponse(1));
+        notification = BenchmarkData.bytes(BenchmarkData.playerStatusNotification());
+    }
+
+    @TearDown
+    public void tearDown() {
+        correlationTable.shutdown();
+    }
+
+    /**
+     * Register an outgoing request and route its response back to the handler, like the controller does for every
+     * request sent to a player or local service
+     */
+    @Benchmark
+    public boolean routeResponse() {
+        correlationTable.register(PLAYER_ID, request, handler);
+        MessageDecoder.Header header = decoder.peek(response);
+        JsonRpcResponseHandler responseHandler = correlationTable.take(PLAYER_ID, header.getId());
+        return responseHandler.onResponse(decoder.decodeResponse(response));
+    }
+
+    /**
+     * Only look at the routing information of a notification
+     */
+    @Benchmark
+    public MessageDecoder.Header peekNotification() {
+        return decoder.peek(notification);
+    }
+
+    /**
+     * Decode a response the way it's done now, routing information first and then bound with a shared helper
+     */
+    @Benchmark
+    public JsonRpcResponse decodeResponse() {
+        decoder.peek(response);
+        return decoder.decodeResponse(response);
+    }
+
+    /**
+     * Decode a response the way it was done before {@link MessageDecoder} was introduced
+     */
+    @Benchmark
+    public JsonRpcResponse decodeResponseWithJsonHelper() throws UnsupportedEncodingException {
+        return new JsonHelper().stringToObject(new String(response, "UTF-8"), JsonRpcResponse.class);
+    }
+
+    /**
+     * Queue a notification on the event loop of a running controller, the event loop applies backpressure so this
+     * measures the sustained rate at which notifications are handled
+     */
+    @Benchmark
+    public void controllerOnMessage(ControllerState state) {
+        state.controller.onMessage("BENCHMARK-UNKNOWN", ServiceType.PLAYER, "BENCHMARK-CONTROLLER", ServiceType.CONTROLLER, notification);
+    }
+}
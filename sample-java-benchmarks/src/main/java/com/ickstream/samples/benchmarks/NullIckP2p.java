@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.benchmarks;
+
+import com.ickstream.common.ickp2p.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ickStream P2P implementation which discards all messages, used to benchmark message handling without any
+ * transport cost
+ */
+public class NullIckP2p implements IckP2p {
+    private final AtomicLong sentMessages = new AtomicLong();
+    private volatile byte[] lastMessage;
+
+    @Override
+    public void create(String deviceName, String deviceId, String dataFolder, Integer lifetime, Integer port, ServiceType services) throws IckP2pException {
+    }
+
+    @Override
+    public void end() throws IckP2pException {
+    }
+
+    @Override
+    public void resume() throws IckP2pException {
+    }
+
+    @Override
+    public void suspend() throws IckP2pException {
+    }
+
+    @Override
+    public void addInterface(String networkInterface, String hostname) throws IckP2pException {
+    }
+
+    @Override
+    public void sendMsg(String targetDeviceId, ServiceType targetServiceType, ServiceType sourceServiceType, byte[] message) throws IckP2pException {
+        sentMessages.incrementAndGet();
+        lastMessage = message;
+    }
+
+    @Override
+    public void sendMsg(String targetDeviceId, ServiceType targetServiceType, byte[] message) throws IckP2pException {
+        sendMsg(targetDeviceId, targetServiceType, null, message);
+    }
+
+    @Override
+    public void sendMsg(ServiceType targetServiceType, byte[] message) throws IckP2pException {
+        sendMsg(null, targetServiceType, null, message);
+    }
+
+    @Override
+    public void addDiscoveryListener(DiscoveryListener listener) {
+    }
+
+    @Override
+    public void removeDiscoveryListener(DiscoveryListener listener) {
+    }
+
+    @Override
+    public void addMessageListener(MessageListener listener) {
+    }
+
+    @Override
+    public void removeMessageListener(MessageListener listener) {
+    }
+
+    /**
+     * @return Number of messages sent
+     */
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    /**
+     * @return The last message sent, or null if nothing has been sent
+     */
+    public byte[] getLastMessage() {
+        return lastMessage;
+    }
+}
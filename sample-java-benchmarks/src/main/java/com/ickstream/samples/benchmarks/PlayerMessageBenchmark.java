@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.benchmarks;
+
+import com.ickstream.common.ickp2p.ServiceType;
+import com.ickstream.samples.player.SamplePlayer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Cost of handling Player Protocol requests in {@link SamplePlayer#onMessage}, which decodes the request, invokes
+ * the player through StringJsonRpcService and sends the encoded response
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerMessageBenchmark {
+    /**
+     * Number of tracks in the playback queue of the player
+     */
+    @Param({"10", "1000"})
+    public int queueSize;
+
+    private Preferences preferences;
+    private SamplePlayer player;
+    private NullIckP2p ickP2p;
+    private byte[] getPlayerStatusRequest;
+    private byte[] getPlaybackQueueRequest;
+    private byte[] setVolumeRequest;
+
+    @Setup
+    public void setup() {
+        preferences = Preferences.userRoot().node("com/ickstream/samples/benchmarks/player");
+        preferences.put("playerName", "Benchmark Player");
+        ickP2p = new NullIckP2p();
+        player = new SamplePlayer(ickP2p, preferences);
+        if (!player.start()) {
+            throw new IllegalStateException("Unable to start player");
+        }
+        send(BenchmarkData.bytes(BenchmarkData.setTracksRequest(1, queueSize)));
+
+        getPlayerStatusRequest = BenchmarkData.bytes(BenchmarkData.request(2, "getPlayerStatus"));
+        getPlaybackQueueRequest = BenchmarkData.bytes("{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"getPlaybackQueue\",\"params\":{\"offset\":0,\"count\":100}}");
+        setVolumeRequest = BenchmarkData.bytes("{\"jsonrpc\":\"2.0\",\"id\":4,\"method\":\"setVolume\",\"params\":{\"volumeLevel\":0.5}}");
+    }
+
+    @TearDown
+    public void tearDown() throws BackingStoreException {
+        player.shutdown();
+        preferences.removeNode();
+    }
+
+    private void send(byte[] message) {
+        player.onMessage("BENCHMARK-CONTROLLER", ServiceType.CONTROLLER, "BENCHMARK-PLAYER", ServiceType.PLAYER, message);
+    }
+
+    @Benchmark
+    public byte[] getPlayerStatus() {
+        send(getPlayerStatusRequest);
+        return ickP2p.getLastMessage();
+    }
+
+    @Benchmark
+    public byte[] getPlaybackQueue() {
+        send(getPlaybackQueueRequest);
+        return ickP2p.getLastMessage();
+    }
+
+    @Benchmark
+    public byte[] setVolume() {
+        send(setVolumeRequest);
+        return ickP2p.getLastMessage();
+    }
+}
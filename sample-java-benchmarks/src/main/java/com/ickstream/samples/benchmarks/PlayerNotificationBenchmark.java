@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.benchmarks;
+
+import com.ickstream.common.jsonrpc.MessageSender;
+import com.ickstream.common.jsonrpc.StringJsonRpcService;
+import com.ickstream.player.model.PlaybackQueue;
+import com.ickstream.player.model.PlaybackQueueStorage;
+import com.ickstream.player.model.PlayerStatus;
+import com.ickstream.player.model.PlayerStatusStorage;
+import com.ickstream.player.service.PlayerCommandService;
+import com.ickstream.player.service.PlayerNotificationSender;
+import com.ickstream.samples.player.DummyPlayerManager;
+import com.ickstream.samples.player.PlayerConfiguration;
+import com.ickstream.samples.player.ServiceUrlManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Cost of building and serializing a playerStatusChanged notification in
+ * {@link DummyPlayerManager#sendPlayerStatusChangedNotification()}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerNotificationBenchmark {
+    /**
+     * Number of tracks in the playback queue of the player
+     */
+    @Param({"10", "1000"})
+    public int queueSize;
+
+    private Preferences preferences;
+    private DummyPlayerManager playerManager;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        preferences = Preferences.userRoot().node("com/ickstream/samples/benchmarks/notification");
+        preferences.put("playerName", "Benchmark Player");
+
+        PlayerNotificationSender notificationSender = new PlayerNotificationSender(new MessageSender() {
+            @Override
+            public void sendMessage(String message) {
+                PlayerNotificationBenchmark.this.blackhole.consume(message);
+            }
+        });
+        PlaybackQueue playbackQueue = new PlaybackQueue(new PlaybackQueueStorage() {
+            @Override
+            public void store(PlaybackQueue playbackQueue) {
+            }
+        });
+        PlayerStatus playerStatus = new PlayerStatus(playbackQueue);
+        playerStatus.setStorage(new PlayerStatusStorage() {
+            @Override
+            public void store(PlayerStatus status) {
+            }
+        });
+        Object syncObject = new Object();
+        playerManager = new DummyPlayerManager(null, playerStatus, notificationSender, null, null, new ServiceUrlManager() {
+            @Override
+            public String getServiceUrl(String service) {
+                return null;
+            }
+        }, syncObject, new PlayerConfiguration(preferences));
+        playerManager.setId("BENCHMARK-PLAYER");
+
+        // Fill the playback queue the same way a controller would
+        PlayerCommandService playerService = new PlayerCommandService("BENCHMARK", playerManager, playerStatus, syncObject);
+        new StringJsonRpcService(playerService, PlayerCommandService.class).handle(BenchmarkData.setTracksRequest(1, queueSize));
+    }
+
+    @TearDown
+    public void tearDown() throws BackingStoreException {
+        playerManager.shutdown();
+        preferences.removeNode();
+    }
+
+    @Benchmark
+    public void sendPlayerStatusChangedNotification() {
+        playerManager.sendPlayerStatusChangedNotification();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.common;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index which keeps items sorted by name and identity, so the sorted list doesn't have to be rebuilt each time
+ * it's displayed.
+ * <p/>
+ * Reads never block and can be done while the index is modified. Modifications of a single identity must not be
+ * done concurrently, the caller is expected to serialize them.
+ *
+ * @param <T> The type of indexed items
+ */
+public class SortedIndex<T> {
+    /**
+     * Sort key of an item
+     */
+    private static final class Key implements Comparable<Key> {
+        private final String name;
+        private final String id;
+
+        private Key(String name, String id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = name.compareTo(other.name);
+            if (result == 0) {
+                result = id.compareTo(other.id);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return name.equals(key.name) && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + id.hashCode();
+        }
+    }
+
+    private final ConcurrentSkipListMap<Key, T> items = new ConcurrentSkipListMap<Key, T>();
+    private final ConcurrentMap<String, Key> keys = new ConcurrentHashMap<String, Key>();
+
+    /**
+     * Add an item or update the name or value of an existing item
+     *
+     * @param id   The identity of the item
+     * @param name The name to sort on
+     * @param item The item
+     */
+    public void put(String id, String name, T item) {
+        Key key = new Key(name != null ? name : "", id);
+        Key previousKey = keys.put(id, key);
+        if (previousKey != null && !previousKey.equals(key)) {
+            // Add before removing, so iterating readers doesn't miss the item
+            items.put(key, item);
+            items.remove(previousKey);
+        } else {
+            items.put(key, item);
+        }
+    }
+
+    /**
+     * Remove an item
+     *
+     * @param id The identity of the item
+     */
+    public void remove(String id) {
+        Key key = keys.remove(id);
+        if (key != null) {
+            items.remove(key);
+        }
+    }
+
+    /**
+     * Get all items in sorted order, the returned collection is a live view
+     *
+     * @return The items
+     */
+    public Collection<T> values() {
+        return items.values();
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * Get the number of items
+     *
+     * @return The number of items
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Get a window of items in sorted order, typically used to display a single page of items
+     *
+     * @param offset Number of items to skip
+     * @param count  Maximum number of items to return
+     * @return The items in the window
+     */
+    public List<T> window(int offset, int count) {
+        List<T> result = new ArrayList<T>(Math.min(count, 64));
+        Iterator<T> it = items.values().iterator();
+        for (int i = 0; i < offset && it.hasNext(); i++) {
+            it.next();
+        }
+        while (result.size() < count && it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+}
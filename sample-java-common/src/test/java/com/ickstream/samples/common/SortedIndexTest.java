@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SortedIndexTest {
+
+    @Test
+    public void testSortedByNameThenId() {
+        SortedIndex<String> index = new SortedIndex<String>();
+        index.put("3", "Bravo", "b");
+        index.put("2", "Alpha", "a2");
+        index.put("1", "Alpha", "a1");
+        index.put("4", null, "unnamed");
+
+        assertEquals(Arrays.asList("unnamed", "a1", "a2", "b"), new ArrayList<String>(index.values()));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void testRenameMovesItem() {
+        SortedIndex<String> index = new SortedIndex<String>();
+        index.put("1", "Alpha", "first");
+        index.put("2", "Bravo", "second");
+        index.put("1", "Charlie", "first renamed");
+
+        assertEquals(Arrays.asList("second", "first renamed"), new ArrayList<String>(index.values()));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testUpdateValueKeepsPosition() {
+        SortedIndex<String> index = new SortedIndex<String>();
+        index.put("1", "Alpha", "old");
+        index.put("1", "Alpha", "new");
+
+        assertEquals(Arrays.asList("new"), new ArrayList<String>(index.values()));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testRemove() {
+        SortedIndex<String> index = new SortedIndex<String>();
+        index.put("1", "Alpha", "a");
+        index.put("2", "Bravo", "b");
+        index.remove("1");
+        index.remove("unknown");
+
+        assertEquals(Arrays.asList("b"), new ArrayList<String>(index.values()));
+        assertEquals(1, index.size());
+        index.remove("2");
+        assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void testWindow() {
+        SortedIndex<Integer> index = new SortedIndex<Integer>();
+        for (int i = 0; i < 10; i++) {
+            index.put("id" + i, "name" + i, i);
+        }
+
+        assertEquals(Arrays.asList(0, 1, 2), index.window(0, 3));
+        assertEquals(Arrays.asList(8, 9), index.window(8, 5));
+        assertEquals(new ArrayList<Integer>(), index.window(10, 5));
+        assertEquals(new ArrayList<Integer>(), index.window(0, 0));
+        List<Integer> all = index.window(0, Integer.MAX_VALUE);
+        assertEquals(10, all.size());
+    }
+}
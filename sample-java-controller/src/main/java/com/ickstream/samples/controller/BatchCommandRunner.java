@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ickstream.common.ickp2p.IckP2p;
+import com.ickstream.protocol.service.player.PlaybackQueueItem;
+import com.ickstream.protocol.service.player.PlaybackQueueSetTracksRequest;
+import com.ickstream.protocol.service.player.VolumeRequest;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Player Protocol commands on many players in parallel without any user interaction.
+ * <p/>
+ * The whole script is parsed and validated when the runner is created, so an invalid script is rejected before
+ * anything is sent. The commands for a player are sent in order through a {@link PlayerCommandChannel} without
+ * waiting for the previous command to be answered. The result of each command on each player is printed as a
+ * JSON object on a single line, followed by a summary line.
+ * <p/>
+ * Supported commands, where target is either "all", "on group NAME" or "on PLAYER" (name or identity):
+ * <pre>
+ * group NAME = PLAYER, PLAYER, ...
+ * play TARGET
+ * pause TARGET
+ * mute TARGET
+ * unmute TARGET
+ * set volume LEVEL TARGET
+ * load queue from FILE TARGET
+ * </pre>
+ * The file used by "load queue" should contain a JSON array of playback queue items.
+ */
+public class BatchCommandRunner {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * A command parsed from the script
+     */
+    private abstract static class Command {
+        private final String line;
+        private final String method;
+        private final String group;
+        private final String player;
+
+        private Command(String line, String method, String group, String player) {
+            this.line = line;
+            this.method = method;
+            this.group = group;
+            this.player = player;
+        }
+
+        /**
+         * Send the command to a player
+         *
+         * @param channel The channel towards the player
+         * @param handler Handler which should receive the result
+         */
+        abstract void send(PlayerCommandChannel channel, PlayerCommandChannel.ResultHandler handler);
+    }
+
+    private final PrintStream out;
+
+    /**
+     * Defined groups, the members are stored in lower case
+     */
+    private final Map<String, Set<String>> groups = new HashMap<String, Set<String>>();
+
+    /**
+     * The parsed commands in script order
+     */
+    private final List<Command> commands = new ArrayList<Command>();
+
+    private int succeeded = 0;
+    private int failed = 0;
+
+    /**
+     * Creates a runner for the specified commands, all commands are parsed immediately
+     *
+     * @param lines The commands
+     * @param out   Stream where the results should be printed
+     * @throws IllegalArgumentException If any of the commands is invalid
+     */
+    public BatchCommandRunner(List<String> lines, PrintStream out) {
+        this.out = out;
+        for (String line : lines) {
+            Command command = parse(line.trim());
+            if (command != null) {
+                commands.add(command);
+            }
+        }
+    }
+
+    /**
+     * Read commands from a script file, empty lines and lines starting with # are ignored
+     *
+     * @param file The script file
+     * @return The commands
+     */
+    public static List<String> readScript(File file) throws IOException {
+        List<String> commands = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    commands.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return commands;
+    }
+
+    /**
+     * Run the commands on the currently discovered players
+     *
+     * @param registry         The registry with the discovered players
+     * @param ickP2p           The ickStream P2P module used to send the commands
+     * @param correlationTable The table used to dispatch the responses
+     * @param timeoutMillis    Maximum time to wait for all responses
+     * @return true if all commands succeeded on all targeted players
+     */
+    public boolean run(DeviceRegistry registry, IckP2p ickP2p, ResponseCorrelationTable correlationTable, long timeoutMillis) throws InterruptedException {
+        // Resolve the targets and count the results we are waiting for
+        Map<Device, List<Command>> commandsPerPlayer = new LinkedHashMap<Device, List<Command>>();
+        int expectedResults = 0;
+        for (Command command : commands) {
+            for (Device player : resolve(registry, command)) {
+                List<Command> playerCommands = commandsPerPlayer.get(player);
+                if (playerCommands == null) {
+                    playerCommands = new ArrayList<Command>();
+                    commandsPerPlayer.put(player, playerCommands);
+                }
+                playerCommands.add(command);
+                expectedResults++;
+            }
+        }
+        CountDownLatch results = new CountDownLatch(expectedResults);
+
+        // Send all commands, each player gets its commands pipelined in script order
+        List<PlayerCommandChannel> channels = new ArrayList<PlayerCommandChannel>();
+        for (Map.Entry<Device, List<Command>> entry : commandsPerPlayer.entrySet()) {
+            Device player = entry.getKey();
+            PlayerCommandChannel channel = new PlayerCommandChannel(player.getId(), ickP2p, correlationTable);
+            channels.add(channel);
+            for (Command command : entry.getValue()) {
+                command.send(channel, createResultHandler(player, command, results));
+            }
+        }
+
+        if (!results.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            // Each abandoned command is reported as timed out through its result handler
+            for (PlayerCommandChannel channel : channels) {
+                channel.abandonPending();
+            }
+        }
+
+        synchronized (this) {
+            ObjectNode summary = MAPPER.createObjectNode();
+            summary.put("summary", true);
+            summary.put("players", commandsPerPlayer.size());
+            summary.put("succeeded", succeeded);
+            summary.put("failed", failed);
+            print(summary);
+            return failed == 0;
+        }
+    }
+
+    private PlayerCommandChannel.ResultHandler createResultHandler(final Device player, final Command command, final CountDownLatch results) {
+        return new PlayerCommandChannel.ResultHandler() {
+            @Override
+            public void onResult(boolean success, String error, long latencyNanos) {
+                report(player, command, success, error, latencyNanos);
+                results.countDown();
+            }
+        };
+    }
+
+    /**
+     * Parse a single command
+     *
+     * @param line The command
+     * @return The command or null if the line only defined a group
+     * @throws IllegalArgumentException If the command is invalid
+     */
+    private Command parse(String line) {
+        String lowerCaseLine = line.toLowerCase();
+        if (lowerCaseLine.startsWith("group ")) {
+            int separator = line.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid group definition: " + line);
+            }
+            Set<String> members = new HashSet<String>();
+            for (String member : line.substring(separator + 1).split(",")) {
+                if (member.trim().length() > 0) {
+                    members.add(member.trim().toLowerCase());
+                }
+            }
+            groups.put(line.substring(6, separator).trim().toLowerCase(), members);
+            return null;
+        }
+
+        String action;
+        String group = null;
+        String player = null;
+        int onIndex = lowerCaseLine.lastIndexOf(" on ");
+        if (lowerCaseLine.endsWith(" all")) {
+            action = line.substring(0, line.length() - 4).trim();
+        } else if (onIndex > 0) {
+            action = line.substring(0, onIndex).trim();
+            String target = line.substring(onIndex + 4).trim();
+            if (target.toLowerCase().startsWith("group ")) {
+                group = target.substring(6).trim().toLowerCase();
+                if (!groups.containsKey(group)) {
+                    throw new IllegalArgumentException("Unknown group in command: " + line);
+                }
+            } else {
+                player = target.toLowerCase();
+            }
+        } else {
+            throw new IllegalArgumentException("Missing target in command: " + line);
+        }
+
+        String[] words = action.split("\\s+");
+        String lowerCaseAction = action.toLowerCase();
+        if (lowerCaseAction.equals("play")) {
+            return createPlayCommand(line, true, group, player);
+        } else if (lowerCaseAction.equals("pause")) {
+            return createPlayCommand(line, false, group, player);
+        } else if (lowerCaseAction.equals("mute")) {
+            VolumeRequest request = new VolumeRequest();
+            request.setMuted(true);
+            return createVolumeCommand(line, request, group, player);
+        } else if (lowerCaseAction.equals("unmute")) {
+            VolumeRequest request = new VolumeRequest();
+            request.setMuted(false);
+            return createVolumeCommand(line, request, group, player);
+        } else if (lowerCaseAction.startsWith("set volume ") && words.length == 3) {
+            VolumeRequest request = new VolumeRequest();
+            try {
+                double volumeLevel = Double.parseDouble(words[2]);
+                if (volumeLevel < 0 || volumeLevel > 1) {
+                    throw new IllegalArgumentException("Volume must be between 0 and 1: " + line);
+                }
+                request.setVolumeLevel(volumeLevel);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid volume: " + line);
+            }
+            return createVolumeCommand(line, request, group, player);
+        } else if (lowerCaseAction.startsWith("load queue from ")) {
+            File file = new File(action.substring("load queue from ".length()).trim());
+            PlaybackQueueItem[] items;
+            try {
+                items = MAPPER.readValue(readFile(file), PlaybackQueueItem[].class);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unable to read playback queue file " + file + ": " + e.getMessage());
+            }
+            if (items == null) {
+                throw new IllegalArgumentException("Playback queue file must contain a JSON array: " + file);
+            }
+            final PlaybackQueueSetTracksRequest request = new PlaybackQueueSetTracksRequest();
+            request.setPlaybackQueuePos(0);
+            request.setItems(Arrays.asList(items));
+            return new Command(line, "setTracks", group, player) {
+                @Override
+                void send(PlayerCommandChannel channel, PlayerCommandChannel.ResultHandler handler) {
+                    channel.setTracks(request, handler);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown command: " + line);
+    }
+
+    private static Command createPlayCommand(String line, final boolean playing, String group, String player) {
+        return new Command(line, "play", group, player) {
+            @Override
+            void send(PlayerCommandChannel channel, PlayerCommandChannel.ResultHandler handler) {
+                channel.play(playing, handler);
+            }
+        };
+    }
+
+    private static Command createVolumeCommand(String line, final VolumeRequest request, String group, String player) {
+        return new Command(line, "setVolume", group, player) {
+            @Override
+            void send(PlayerCommandChannel channel, PlayerCommandChannel.ResultHandler handler) {
+                channel.setVolume(request, handler);
+            }
+        };
+    }
+
+    /**
+     * Get the players a command should be sent to
+     *
+     * @param registry The registry with the discovered players
+     * @param command  The command
+     * @return The players
+     */
+    private List<Device> resolve(DeviceRegistry registry, Command command) {
+        List<Device> players = new ArrayList<Device>();
+        Set<String> members = command.group != null ? groups.get(command.group) : null;
+        for (Device device : registry.getSortedPlayers().values()) {
+            if (members != null) {
+                if (members.contains(device.getId().toLowerCase()) || members.contains(device.getName().toLowerCase())) {
+                    players.add(device);
+                }
+            } else if (command.player != null) {
+                if (command.player.equals(device.getId().toLowerCase()) || command.player.equals(device.getName().toLowerCase())) {
+                    players.add(device);
+                }
+            } else {
+                players.add(device);
+            }
+        }
+        return players;
+    }
+
+    private synchronized void report(Device player, Command command, boolean success, String error, long latencyNanos) {
+        if (success) {
+            succeeded++;
+        } else {
+            failed++;
+        }
+        ObjectNode result = MAPPER.createObjectNode();
+        result.put("player", player.getId());
+        result.put("name", player.getName());
+        result.put("command", command.line);
+        result.put("method", command.method);
+        result.put("success", success);
+        if (latencyNanos >= 0) {
+            result.put("latencyMs", latencyNanos / 1000000.0);
+        }
+        if (error != null) {
+            result.put("error", error);
+        }
+        print(result);
+    }
+
+    private void print(ObjectNode node) {
+        try {
+            out.println(MAPPER.writeValueAsString(node));
+        } catch (IOException e) {
+            // Only contains simple values
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                buffer.write(chunk, 0, read);
+            }
+            return buffer.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.ickstream.protocol.common.ChunkedResponse;
+import com.ickstream.protocol.common.exception.ServiceException;
+import com.ickstream.protocol.common.exception.ServiceTimeoutException;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Retrieves all items of a chunked Cloud Core request, such as findDevices or findServices, one chunk at a time.
+ * <p/>
+ * A limited number of chunks are requested in parallel, so the following chunks are already being retrieved while
+ * the current chunk is processed. Chunks are always delivered in order. The retrieval stops when the total number
+ * of items reported by the response has been received. If the response doesn't report the total number of items,
+ * the retrieval stops at the first chunk which contains less items than requested.
+ *
+ * @param <T> The type of items retrieved
+ */
+public class ChunkedFetcher<T> {
+    /**
+     * Source which retrieves a single chunk of items
+     *
+     * @param <T> The type of items retrieved
+     */
+    public interface ChunkSource<T> {
+        /**
+         * Retrieve a chunk of items
+         *
+         * @param offset The offset of the first item to retrieve
+         * @param count  The number of items to retrieve
+         * @return The response with the retrieved items
+         */
+        ChunkedResponse<T> fetch(int offset, int count) throws ServiceException, ServiceTimeoutException;
+    }
+
+    /**
+     * Handler which processes the retrieved items
+     *
+     * @param <T> The type of items retrieved
+     */
+    public interface ChunkHandler<T> {
+        /**
+         * Process a chunk of items, this is called on the thread calling {@link #fetchAll}
+         *
+         * @param items The items in the chunk
+         */
+        void onChunk(List<T> items);
+    }
+
+    /**
+     * A requested chunk
+     */
+    private class Chunk {
+        private final int count;
+        private final Future<ChunkedResponse<T>> future;
+
+        private Chunk(int count, Future<ChunkedResponse<T>> future) {
+            this.count = count;
+            this.future = future;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final int parallelism;
+
+    /**
+     * Creates a new fetcher
+     *
+     * @param executor    Executor which the chunks are retrieved on
+     * @param chunkSize   Number of items to request in each chunk
+     * @param parallelism Maximum number of chunks to request in parallel
+     */
+    public ChunkedFetcher(ExecutorService executor, int chunkSize, int parallelism) {
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Retrieve all items, each chunk is handed to the handler as soon as it and all previous chunks are available.
+     * <p/>
+     * If the service returns another number of items than requested while more items are available, the chunks
+     * requested in parallel no longer start where the previous chunk ended. They are then requested again from
+     * the right offset, using the number of items the service returned as chunk size.
+     *
+     * @param source  The source to retrieve chunks from
+     * @param handler The handler which should process the retrieved items
+     * @return The total number of items retrieved
+     */
+    public int fetchAll(final ChunkSource<T> source, ChunkHandler<T> handler) throws ServiceException, ServiceTimeoutException, InterruptedException {
+        LinkedList<Chunk> inFlight = new LinkedList<Chunk>();
+        int pageSize = chunkSize;
+        // Offset of the next chunk to request
+        int nextOffset = 0;
+        // Offset of the first item not yet received
+        int offset = 0;
+        int total = 0;
+        Integer countAll = null;
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                inFlight.add(submit(source, nextOffset, pageSize));
+                nextOffset += pageSize;
+            }
+            while (!inFlight.isEmpty()) {
+                Chunk chunk = inFlight.removeFirst();
+                ChunkedResponse<T> response = get(chunk.future);
+                List<T> items = response != null ? response.getItems() : null;
+                if (response != null && response.getCountAll() != null) {
+                    countAll = response.getCountAll();
+                }
+                int received = items != null ? items.size() : 0;
+                offset += received;
+                boolean lastChunk;
+                if (received == 0) {
+                    lastChunk = true;
+                } else if (countAll != null) {
+                    lastChunk = offset >= countAll;
+                } else {
+                    lastChunk = received < chunk.count;
+                }
+                if (!lastChunk) {
+                    if (received != chunk.count) {
+                        // The service pages with another size, so the chunks already requested would leave gaps
+                        // or overlap, request them again from where this chunk ended
+                        if (received < chunk.count) {
+                            pageSize = received;
+                        }
+                        cancel(inFlight);
+                        nextOffset = offset;
+                    }
+                    // Keep the pipeline full while the current chunk is processed
+                    while (inFlight.size() < parallelism && (countAll == null || nextOffset < countAll)) {
+                        inFlight.add(submit(source, nextOffset, pageSize));
+                        nextOffset += pageSize;
+                    }
+                }
+                if (received > 0) {
+                    handler.onChunk(items);
+                    total += received;
+                }
+                if (lastChunk) {
+                    break;
+                }
+            }
+        } finally {
+            // Chunks requested beyond the end are not needed
+            cancel(inFlight);
+        }
+        return total;
+    }
+
+    private void cancel(List<Chunk> chunks) {
+        for (Chunk chunk : chunks) {
+            chunk.future.cancel(true);
+        }
+        chunks.clear();
+    }
+
+    private Chunk submit(final ChunkSource<T> source, final int offset, final int count) {
+        return new Chunk(count, executor.submit(new Callable<ChunkedResponse<T>>() {
+            @Override
+            public ChunkedResponse<T> call() throws Exception {
+                return source.fetch(offset, count);
+            }
+        }));
+    }
+
+    private ChunkedResponse<T> get(Future<ChunkedResponse<T>> future) throws ServiceException, ServiceTimeoutException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServiceException) {
+                throw (ServiceException) e.getCause();
+            } else if (e.getCause() instanceof ServiceTimeoutException) {
+                throw (ServiceTimeoutException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Latency and failure metrics for the requests made by the controller, both to devices on the local network and
+ * to the Cloud Core service.
+ * <p/>
+ * There is a {@link LatencyHistogram} per method, per device and for the time from a device is discovered until
+ * its configuration has been retrieved. All histograms are registered as JMX MBeans under the
+ * "com.ickstream.samples.controller" domain and a snapshot of them can periodically be written to a file.
+ */
+public class ControllerMetrics implements ControllerMetricsMBean {
+    /**
+     * Name of the histogram for the time from discovery until configuration has been retrieved
+     */
+    public static final String DISCOVERY_TO_CONFIGURED = "discoveryToConfigured";
+
+    private static final String DOMAIN = "com.ickstream.samples.controller";
+
+    private final ConcurrentMap<String, LatencyHistogram> methods = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentMap<String, LatencyHistogram> devices = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final LatencyHistogram discoveryToConfigured = new LatencyHistogram(DISCOVERY_TO_CONFIGURED);
+
+    /**
+     * Time in nanoseconds when devices not yet configured were discovered
+     */
+    private final ConcurrentMap<String, Long> discoveryTimes = new ConcurrentHashMap<String, Long>();
+
+    private final MBeanServer mBeanServer;
+    private volatile boolean registered = false;
+    private ScheduledExecutorService snapshotExecutor;
+
+    public ControllerMetrics() {
+        this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    }
+
+    /**
+     * Register the metrics and all histograms as JMX MBeans, histograms created later are registered when created
+     */
+    public void register() {
+        registered = true;
+        registerMBean(objectName("ControllerMetrics", null), this);
+        registerMBean(objectName("Latency", DISCOVERY_TO_CONFIGURED), discoveryToConfigured);
+        for (LatencyHistogram histogram : methods.values()) {
+            registerMBean(objectName("MethodLatency", histogram.getName()), histogram);
+        }
+        for (LatencyHistogram histogram : devices.values()) {
+            registerMBean(objectName("DeviceLatency", histogram.getName()), histogram);
+        }
+    }
+
+    /**
+     * Write a snapshot of the metrics to a file periodically, the file is replaced each time
+     *
+     * @param file   The file to write to
+     * @param period Time between snapshots
+     * @param unit   Unit of the period
+     */
+    public synchronized void startSnapshots(final File file, long period, TimeUnit unit) {
+        if (snapshotExecutor != null) {
+            return;
+        }
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                writeSnapshot(file);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stop writing snapshots and unregister all MBeans
+     *
+     * @param file File to write a final snapshot to, or null if no final snapshot should be written
+     */
+    public void shutdown(File file) {
+        synchronized (this) {
+            if (snapshotExecutor != null) {
+                snapshotExecutor.shutdownNow();
+                snapshotExecutor = null;
+            }
+        }
+        if (file != null) {
+            writeSnapshot(file);
+        }
+        if (registered) {
+            registered = false;
+            try {
+                for (ObjectName name : mBeanServer.queryNames(new ObjectName(DOMAIN + ":*"), null)) {
+                    mBeanServer.unregisterMBean(name);
+                }
+            } catch (Exception e) {
+                // Nothing we can do about it while shutting down
+            }
+        }
+    }
+
+    /**
+     * Record a successful request
+     *
+     * @param method     The method called
+     * @param deviceId   The device called, or null if it wasn't a device on the local network
+     * @param startNanos Value of {@link System#nanoTime()} when the request was sent
+     */
+    public void recordResponse(String method, String deviceId, long startNanos) {
+        long latency = System.nanoTime() - startNanos;
+        getMethodHistogram(method).record(latency);
+        if (deviceId != null) {
+            getDeviceHistogram(deviceId).record(latency);
+        }
+    }
+
+    /**
+     * Record a request which failed with an error
+     *
+     * @param method   The method called
+     * @param deviceId The device called, or null if it wasn't a device on the local network
+     */
+    public void recordError(String method, String deviceId) {
+        getMethodHistogram(method).recordError();
+        if (deviceId != null) {
+            getDeviceHistogram(deviceId).recordError();
+        }
+    }
+
+    /**
+     * Record a request which didn't get any response
+     *
+     * @param method   The method called
+     * @param deviceId The device called, or null if it wasn't a device on the local network
+     */
+    public void recordTimeout(String method, String deviceId) {
+        getMethodHistogram(method).recordTimeout();
+        if (deviceId != null) {
+            getDeviceHistogram(deviceId).recordTimeout();
+        }
+    }
+
+    /**
+     * Record that a device has been discovered, only the first discovery counts until the device is configured
+     * or disconnected
+     *
+     * @param deviceId The discovered device
+     */
+    public void deviceDiscovered(String deviceId) {
+        discoveryTimes.putIfAbsent(deviceId, System.nanoTime());
+    }
+
+    /**
+     * Record that the configuration of a discovered device has been retrieved
+     *
+     * @param deviceId The configured device
+     */
+    public void deviceConfigured(String deviceId) {
+        Long discoveryTime = discoveryTimes.remove(deviceId);
+        if (discoveryTime != null) {
+            discoveryToConfigured.record(System.nanoTime() - discoveryTime);
+        }
+    }
+
+    /**
+     * Record that a device has disappeared from the network, the histogram of the device is removed so devices
+     * coming and going doesn't grow the metrics without limit
+     *
+     * @param deviceId The disconnected device
+     */
+    public void deviceDisconnected(String deviceId) {
+        discoveryTimes.remove(deviceId);
+        if (devices.remove(deviceId) != null && registered) {
+            unregisterMBean(objectName("DeviceLatency", deviceId));
+        }
+    }
+
+    private LatencyHistogram getMethodHistogram(String method) {
+        LatencyHistogram histogram = methods.get(method);
+        if (histogram == null) {
+            histogram = createHistogram(methods, "MethodLatency", method);
+        }
+        return histogram;
+    }
+
+    private LatencyHistogram getDeviceHistogram(String deviceId) {
+        LatencyHistogram histogram = devices.get(deviceId);
+        if (histogram == null) {
+            histogram = createHistogram(devices, "DeviceLatency", deviceId);
+        }
+        return histogram;
+    }
+
+    private LatencyHistogram createHistogram(ConcurrentMap<String, LatencyHistogram> histograms, String type, String name) {
+        LatencyHistogram created = new LatencyHistogram(name);
+        LatencyHistogram existing = histograms.putIfAbsent(name, created);
+        if (existing != null) {
+            return existing;
+        }
+        if (registered) {
+            registerMBean(objectName(type, name), created);
+        }
+        return created;
+    }
+
+    private ObjectName objectName(String type, String name) {
+        try {
+            return new ObjectName(DOMAIN + ":type=" + type + (name != null ? ",name=" + ObjectName.quote(name) : ""));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid MBean name: " + name, e);
+        }
+    }
+
+    private void registerMBean(ObjectName name, Object mBean) {
+        try {
+            if (!mBeanServer.isRegistered(name)) {
+                mBeanServer.registerMBean(mBean, name);
+            }
+        } catch (Exception e) {
+            System.err.println("Unable to register MBean " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void unregisterMBean(ObjectName name) {
+        try {
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            System.err.println("Unable to unregister MBean " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a snapshot to a temporary file and replace the previous snapshot with it
+     *
+     * @param file The file to write to
+     */
+    private void writeSnapshot(File file) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+            try {
+                writer.write(getSnapshot());
+            } finally {
+                writer.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                // Rename doesn't replace existing files on all platforms
+                file.delete();
+                tempFile.renameTo(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to write metrics snapshot to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static List<LatencyHistogram> sorted(Collection<LatencyHistogram> histograms) {
+        List<LatencyHistogram> result = new ArrayList<LatencyHistogram>(histograms);
+        Collections.sort(result, new Comparator<LatencyHistogram>() {
+            @Override
+            public int compare(LatencyHistogram histogram1, LatencyHistogram histogram2) {
+                return histogram1.getName().compareTo(histogram2.getName());
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public long getRequestCount() {
+        long count = 0;
+        for (LatencyHistogram histogram : methods.values()) {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getErrorCount() {
+        long count = 0;
+        for (LatencyHistogram histogram : methods.values()) {
+            count += histogram.getErrorCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        long count = 0;
+        for (LatencyHistogram histogram : methods.values()) {
+            count += histogram.getTimeoutCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getPendingDiscoveries() {
+        return discoveryTimes.size();
+    }
+
+    @Override
+    public String getSnapshot() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Snapshot: ").append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date())).append("\n");
+        sb.append(discoveryToConfigured).append("\n");
+        sb.append("\nMethods:\n");
+        for (LatencyHistogram histogram : sorted(methods.values())) {
+            sb.append(histogram).append("\n");
+        }
+        sb.append("\nDevices:\n");
+        for (LatencyHistogram histogram : sorted(devices.values())) {
+            sb.append(histogram).append("\n");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        discoveryToConfigured.reset();
+        for (LatencyHistogram histogram : methods.values()) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : devices.values()) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.ickstream.common.ickp2p.*;
+import com.ickstream.common.jsonrpc.JsonRpcResponseHandler;
+
+/**
+ * {@link IckP2p} wrapper used by a single service client, it registers all requests sent to a specific device in a
+ * {@link ResponseCorrelationTable} so the responses can be routed back to the client
+ */
+public class CorrelatingIckP2p implements IckP2p {
+    private final IckP2p ickP2p;
+    private final ResponseCorrelationTable correlationTable;
+    private volatile JsonRpcResponseHandler responseHandler;
+
+    public CorrelatingIckP2p(IckP2p ickP2p, ResponseCorrelationTable correlationTable) {
+        this.ickP2p = ickP2p;
+        this.correlationTable = correlationTable;
+    }
+
+    /**
+     * Set the client which should receive responses on requests sent through this instance
+     *
+     * @param responseHandler The client
+     */
+    public void setResponseHandler(JsonRpcResponseHandler responseHandler) {
+        this.responseHandler = responseHandler;
+    }
+
+    @Override
+    public void sendMsg(String targetDeviceId, ServiceType targetServiceType, ServiceType sourceServiceType, byte[] message) throws IckP2pException {
+        register(targetDeviceId, message);
+        ickP2p.sendMsg(targetDeviceId, targetServiceType, sourceServiceType, message);
+    }
+
+    @Override
+    public void sendMsg(String targetDeviceId, ServiceType targetServiceType, byte[] message) throws IckP2pException {
+        register(targetDeviceId, message);
+        ickP2p.sendMsg(targetDeviceId, targetServiceType, message);
+    }
+
+    @Override
+    public void sendMsg(ServiceType targetServiceType, byte[] message) throws IckP2pException {
+        // Broadcasts can be answered by anyone, so they are handled by the fallback routing
+        ickP2p.sendMsg(targetServiceType, message);
+    }
+
+    private void register(String targetDeviceId, byte[] message) {
+        JsonRpcResponseHandler handler = responseHandler;
+        if (targetDeviceId != null && handler != null) {
+            correlationTable.register(targetDeviceId, message, handler);
+        }
+    }
+
+    @Override
+    public void create(String deviceName, String deviceId, String dataFolder, Integer lifetime, Integer port, ServiceType services) throws IckP2pException {
+        ickP2p.create(deviceName, deviceId, dataFolder, lifetime, port, services);
+    }
+
+    @Override
+    public void end() throws IckP2pException {
+        ickP2p.end();
+    }
+
+    @Override
+    public void resume() throws IckP2pException {
+        ickP2p.resume();
+    }
+
+    @Override
+    public void suspend() throws IckP2pException {
+        ickP2p.suspend();
+    }
+
+    @Override
+    public void addInterface(String networkInterface, String hostname) throws IckP2pException {
+        ickP2p.addInterface(networkInterface, hostname);
+    }
+
+    @Override
+    public void addDiscoveryListener(DiscoveryListener listener) {
+        ickP2p.addDiscoveryListener(listener);
+    }
+
+    @Override
+    public void removeDiscoveryListener(DiscoveryListener listener) {
+        ickP2p.removeDiscoveryListener(listener);
+    }
+
+    @Override
+    public void addMessageListener(MessageListener listener) {
+        ickP2p.addMessageListener(listener);
+    }
+
+    @Override
+    public void removeMessageListener(MessageListener listener) {
+        ickP2p.removeMessageListener(listener);
+    }
+}
@@ -34,32 +34,34 @@ import com.ickstream.protocol.service.player.PlayerService;
 
 /**
  * Representation of a device on local network
+ * <p/>
+ * Instances are shared between threads through the {@link DeviceRegistry}, so all fields are volatile
  */
 public class Device {
     /**
      * Identity of the device
      */
-    String id;
+    volatile String id;
 
     /**
      * Name of the device, this might be null if the device doesn't have a name
      */
-    String name;
+    volatile String name;
 
     /**
      * More information about the device in case it's registered in Cloud Core service
      */
-    DeviceResponse registeredInformation;
+    volatile DeviceResponse registeredInformation;
 
     /**
      * Player service client
      */
-    PlayerService playerService;
+    volatile PlayerService playerService;
 
     /**
      * More information about the player configuration
      */
-    PlayerConfigurationResponse playerConfiguration;
+    volatile PlayerConfigurationResponse playerConfiguration;
 
     public Device(String id, String name) {
         this.id = id;
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.ickstream.protocol.service.core.DeviceResponse;
+import com.ickstream.samples.common.SortedIndex;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Thread safe registry of the players and services available to the controller and the devices registered
+ * in the Cloud Core service.
+ * <p/>
+ * Lookups never block, so they can be used when routing incoming messages. Modifications of a single device are
+ * serialized by a lock selected from a fixed set of locks based on the device identity, so callbacks for different
+ * devices can be processed in parallel.
+ */
+public class DeviceRegistry {
+    /**
+     * Number of locks used to serialize modifications, must be a power of two
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Players discovered
+     */
+    private final ConcurrentMap<String, Device> players = new ConcurrentHashMap<String, Device>(256, 0.75f, LOCK_STRIPES);
+
+    /**
+     * Services discovered (both online and local)
+     */
+    private final ConcurrentMap<String, Service> services = new ConcurrentHashMap<String, Service>(256, 0.75f, LOCK_STRIPES);
+
+    /**
+     * All devices registered in Cloud Core service
+     */
+    private final ConcurrentMap<String, DeviceResponse> registeredDevices = new ConcurrentHashMap<String, DeviceResponse>(256, 0.75f, LOCK_STRIPES);
+
+    /**
+     * Players sorted by name, updated while holding the lock for the device
+     */
+    private final SortedIndex<Device> sortedPlayers = new SortedIndex<Device>();
+
+    /**
+     * Services sorted by name, updated while holding the lock for the service
+     */
+    private final SortedIndex<Service> sortedServices = new SortedIndex<Service>();
+
+    /**
+     * Locks used to make modifications of a single device atomic
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * Listeners which should be notified about changes
+     */
+    private final List<RegistryListener> listeners = new CopyOnWriteArrayList<RegistryListener>();
+
+    /**
+     * Modification of a player or service which should be performed atomically
+     *
+     * @param <T> The type of object to modify
+     */
+    public interface Update<T> {
+        /**
+         * Modify the object, this is called while holding the lock for the device
+         *
+         * @param item The object to modify
+         */
+        void apply(T item);
+    }
+
+    public DeviceRegistry() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public void addListener(RegistryListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Get the lock which should be used when modifying the specified device
+     *
+     * @param deviceId The identity of the device
+     * @return The lock object
+     */
+    private Object lockFor(String deviceId) {
+        int hash = deviceId.hashCode();
+        hash ^= (hash >>> 16);
+        return locks[hash & (LOCK_STRIPES - 1)];
+    }
+
+    public Device getPlayer(String deviceId) {
+        return players.get(deviceId);
+    }
+
+    public Service getService(String serviceId) {
+        return services.get(serviceId);
+    }
+
+    public DeviceResponse getRegisteredDevice(String deviceId) {
+        return registeredDevices.get(deviceId);
+    }
+
+    /**
+     * Get all players, the returned collection is a live view which can be iterated while the registry is modified
+     *
+     * @return The players
+     */
+    public Collection<Device> getPlayers() {
+        return players.values();
+    }
+
+    /**
+     * Get all services, the returned collection is a live view which can be iterated while the registry is modified
+     *
+     * @return The services
+     */
+    public Collection<Service> getServices() {
+        return services.values();
+    }
+
+    /**
+     * Get all players sorted by name, the returned index is live and can be iterated while the registry is modified
+     *
+     * @return The sorted players
+     */
+    public SortedIndex<Device> getSortedPlayers() {
+        return sortedPlayers;
+    }
+
+    /**
+     * Get all services sorted by name, the returned index is live and can be iterated while the registry is modified
+     *
+     * @return The sorted services
+     */
+    public SortedIndex<Service> getSortedServices() {
+        return sortedServices;
+    }
+
+    /**
+     * Add a player discovered on the local network, if the device is registered in the Cloud Core service
+     * the registered information is attached to it
+     *
+     * @param deviceId   The identity of the player
+     * @param deviceName The name announced by the player
+     * @return The added player
+     */
+    public Device addPlayer(String deviceId, String deviceName) {
+        Device player;
+        synchronized (lockFor(deviceId)) {
+            DeviceResponse registeredDevice = registeredDevices.get(deviceId);
+            if (registeredDevice != null) {
+                player = new Device(deviceId, registeredDevice);
+            } else {
+                player = new Device(deviceId, deviceName);
+            }
+            players.put(deviceId, player);
+            sortedPlayers.put(deviceId, player.getName(), player);
+        }
+        for (RegistryListener listener : listeners) {
+            listener.onPlayerChanged(player);
+        }
+        return player;
+    }
+
+    /**
+     * Atomically modify a player
+     *
+     * @param deviceId The identity of the player
+     * @param update   The modification to perform
+     * @return true if the player existed and was modified, false if it didn't exist
+     */
+    public boolean updatePlayer(String deviceId, Update<Device> update) {
+        Device player;
+        synchronized (lockFor(deviceId)) {
+            player = players.get(deviceId);
+            if (player == null) {
+                return false;
+            }
+            update.apply(player);
+            // The update might have changed the name
+            sortedPlayers.put(deviceId, player.getName(), player);
+        }
+        for (RegistryListener listener : listeners) {
+            listener.onPlayerChanged(player);
+        }
+        return true;
+    }
+
+    public void removePlayer(String deviceId) {
+        Device player;
+        synchronized (lockFor(deviceId)) {
+            player = players.remove(deviceId);
+            sortedPlayers.remove(deviceId);
+        }
+        if (player != null) {
+            for (RegistryListener listener : listeners) {
+                listener.onPlayerRemoved(deviceId);
+            }
+        }
+    }
+
+    /**
+     * Add a service, any previous service with the same identity is replaced
+     *
+     * @param service The service to add
+     */
+    public void addService(Service service) {
+        synchronized (lockFor(service.getId())) {
+            services.put(service.getId(), service);
+            sortedServices.put(service.getId(), service.getName(), service);
+        }
+        for (RegistryListener listener : listeners) {
+            listener.onServiceChanged(service);
+        }
+    }
+
+    /**
+     * Atomically modify a service
+     *
+     * @param serviceId The identity of the service
+     * @param update    The modification to perform
+     * @return true if the service existed and was modified, false if it didn't exist
+     */
+    public boolean updateService(String serviceId, Update<Service> update) {
+        Service service;
+        synchronized (lockFor(serviceId)) {
+            service = services.get(serviceId);
+            if (service == null) {
+                return false;
+            }
+            update.apply(service);
+            // The update might have changed the name
+            sortedServices.put(serviceId, service.getName(), service);
+        }
+        for (RegistryListener listener : listeners) {
+            listener.onServiceChanged(service);
+        }
+        return true;
+    }
+
+    public void removeService(String serviceId) {
+        Service service;
+        synchronized (lockFor(serviceId)) {
+            service = services.remove(serviceId);
+            sortedServices.remove(serviceId);
+        }
+        if (service != null) {
+            for (RegistryListener listener : listeners) {
+                listener.onServiceRemoved(serviceId);
+            }
+        }
+    }
+
+    /**
+     * Remove a device which has disappeared from the local network, both as player and service
+     *
+     * @param deviceId The identity of the device
+     */
+    public void removeDevice(String deviceId) {
+        removePlayer(deviceId);
+        removeService(deviceId);
+    }
+
+    /**
+     * Add devices registered in the Cloud Core service, players which already have been discovered are updated
+     * with the registered information
+     *
+     * @param devices The registered devices
+     */
+    public void addRegisteredDevices(Collection<DeviceResponse> devices) {
+        for (DeviceResponse device : devices) {
+            Device player;
+            synchronized (lockFor(device.getId())) {
+                registeredDevices.put(device.getId(), device);
+                player = players.get(device.getId());
+                if (player != null) {
+                    player.setRegisteredInformation(device);
+                    // The name of a registered device is taken from the registered information
+                    sortedPlayers.put(device.getId(), player.getName(), player);
+                }
+            }
+            if (player != null) {
+                for (RegistryListener listener : listeners) {
+                    listener.onPlayerChanged(player);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a device which no longer is registered in the Cloud Core service, if it has been discovered as a player
+     * the registered information is removed from it
+     *
+     * @param deviceId The identity of the device
+     */
+    public void removeRegisteredDevice(String deviceId) {
+        Device player;
+        synchronized (lockFor(deviceId)) {
+            if (registeredDevices.remove(deviceId) == null) {
+                return;
+            }
+            player = players.get(deviceId);
+            if (player != null) {
+                player.setRegisteredInformation(null);
+                sortedPlayers.put(deviceId, player.getName(), player);
+            }
+        }
+        if (player != null) {
+            for (RegistryListener listener : listeners) {
+                listener.onPlayerChanged(player);
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single consumer event loop, callbacks from the ickStream P2P module only enqueue an event here and all
+ * controller logic runs in order on the event loop thread.
+ * <p/>
+ * The queue is bounded, when it's full the producing thread is blocked until the event loop has caught up,
+ * so a flood of messages slows down the callbacks instead of growing memory without limit.
+ * <p/>
+ * The time each event spends in the queue and the time it takes to process it are measured per event type.
+ */
+public class EventLoop {
+    /**
+     * An event waiting to be processed
+     */
+    private static class Event {
+        private final EventStatistics statistics;
+        private final Runnable runnable;
+        private final long enqueueTime;
+
+        private Event(EventStatistics statistics, Runnable runnable, long enqueueTime) {
+            this.statistics = statistics;
+            this.runnable = runnable;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    /**
+     * Statistics for one type of event, all times are in nanoseconds
+     */
+    public static class EventStatistics {
+        private final String type;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalQueueTime = new AtomicLong();
+        private final AtomicLong maxQueueTime = new AtomicLong();
+        private final AtomicLong totalProcessingTime = new AtomicLong();
+        private final AtomicLong maxProcessingTime = new AtomicLong();
+
+        private EventStatistics(String type) {
+            this.type = type;
+        }
+
+        private void record(long queueTime, long processingTime, boolean failed) {
+            count.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            totalQueueTime.addAndGet(queueTime);
+            totalProcessingTime.addAndGet(processingTime);
+            updateMax(maxQueueTime, queueTime);
+            updateMax(maxProcessingTime, processingTime);
+        }
+
+        private static void updateMax(AtomicLong max, long value) {
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getAverageQueueTimeMicros() {
+            long processed = count.get();
+            return processed > 0 ? TimeUnit.NANOSECONDS.toMicros(totalQueueTime.get() / processed) : 0;
+        }
+
+        public long getMaxQueueTimeMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxQueueTime.get());
+        }
+
+        public long getAverageProcessingTimeMicros() {
+            long processed = count.get();
+            return processed > 0 ? TimeUnit.NANOSECONDS.toMicros(totalProcessingTime.get() / processed) : 0;
+        }
+
+        public long getMaxProcessingTimeMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxProcessingTime.get());
+        }
+
+        @Override
+        public String toString() {
+            return type + ": " + getCount() + " events, queue " + getAverageQueueTimeMicros() + "/" + getMaxQueueTimeMicros() +
+                    " us, processing " + getAverageProcessingTimeMicros() + "/" + getMaxProcessingTimeMicros() +
+                    " us (average/max)" + (getFailures() > 0 ? ", " + getFailures() + " failed" : "");
+        }
+    }
+
+    /**
+     * Event used to wake up the event loop thread when it should stop
+     */
+    private static final Event STOP = new Event(null, null, 0);
+
+    private final BlockingQueue<Event> queue;
+    private final ConcurrentMap<String, EventStatistics> statistics = new ConcurrentHashMap<String, EventStatistics>();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = false;
+
+    /**
+     * Creates a new event loop, it must be started with {@link #start()}
+     *
+     * @param capacity Maximum number of events waiting to be processed before producers are blocked
+     */
+    public EventLoop(int capacity) {
+        this.queue = new ArrayBlockingQueue<Event>(capacity);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "event-loop");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start processing events
+     */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stop processing events, events still in the queue are discarded
+     */
+    public void shutdown() {
+        if (running) {
+            running = false;
+            queue.clear();
+            queue.offer(STOP);
+            if (Thread.currentThread() != thread) {
+                try {
+                    thread.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Add an event to be processed on the event loop thread, blocks if the queue is full
+     *
+     * @param type     The type of event, used to group the statistics
+     * @param runnable The code to run for the event
+     * @return true if the event was queued, false if the event loop has been stopped
+     */
+    public boolean post(String type, Runnable runnable) {
+        if (!running) {
+            return false;
+        }
+        EventStatistics eventStatistics = statistics.get(type);
+        if (eventStatistics == null) {
+            EventStatistics created = new EventStatistics(type);
+            eventStatistics = statistics.putIfAbsent(type, created);
+            if (eventStatistics == null) {
+                eventStatistics = created;
+            }
+        }
+        Event event = new Event(eventStatistics, runnable, System.nanoTime());
+        if (!queue.offer(event)) {
+            blockedCount.incrementAndGet();
+            try {
+                while (running && !queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                    // Wait until the event loop has caught up or has been stopped
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return running;
+    }
+
+    private void loop() {
+        while (running) {
+            Event event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (event == STOP) {
+                break;
+            }
+            long startTime = System.nanoTime();
+            boolean failed = false;
+            try {
+                event.runnable.run();
+            } catch (RuntimeException e) {
+                failed = true;
+                System.err.println("Failed to process " + event.statistics.getType() + " event: " + e);
+            }
+            long endTime = System.nanoTime();
+            event.statistics.record(startTime - event.enqueueTime, endTime - startTime, failed);
+        }
+    }
+
+    /**
+     * @return Number of events waiting to be processed
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return Number of times a producer had to wait because the queue was full
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /**
+     * @return Statistics for all event types seen so far, sorted by type
+     */
+    public List<EventStatistics> getStatistics() {
+        List<String> types = new ArrayList<String>(statistics.keySet());
+        Collections.sort(types);
+        List<EventStatistics> result = new ArrayList<EventStatistics>();
+        for (String type : types) {
+            result.add(statistics.get(type));
+        }
+        return result;
+    }
+}
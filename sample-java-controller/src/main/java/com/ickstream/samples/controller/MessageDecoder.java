@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.ickstream.common.jsonrpc.JsonRpcResponse;
+
+import java.io.IOException;
+
+/**
+ * Decoder for incoming JSON-RPC messages which works directly on the received bytes.
+ * <p/>
+ * {@link #peek(byte[])} only reads the top level fields needed to route a message, so messages which nobody is
+ * going to handle never have to be fully parsed. Messages which are handled are bound directly from the bytes,
+ * without creating a String, through a single {@link ObjectReader} shared by all threads. The reader ignores unknown
+ * properties just like the mapper of the ickStream library's JsonHelper.
+ */
+public class MessageDecoder {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Thread safe reader for responses, configured like the mapper of the ickStream library
+     */
+    private static final ObjectReader RESPONSE_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .reader(JsonRpcResponse.class);
+
+    /**
+     * Type of message as detected by {@link #peek(byte[])}
+     */
+    public enum Type {
+        /**
+         * A response to a request we have sent, it has an id but no method
+         */
+        RESPONSE,
+        /**
+         * A notification, it has a method but no id
+         */
+        NOTIFICATION,
+        /**
+         * A request from another device, it has both a method and an id
+         */
+        REQUEST,
+        /**
+         * Not a valid JSON-RPC message
+         */
+        INVALID
+    }
+
+    /**
+     * Routing information about a message
+     */
+    public static final class Header {
+        private static final Header INVALID = new Header(Type.INVALID, null);
+
+        private final Type type;
+        private final String id;
+
+        private Header(Type type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Get the JSON-RPC id of the message
+         *
+         * @return The id as text or null if the message doesn't have an id
+         */
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * Read the routing information of a message without binding it to any objects
+     *
+     * @param message The message
+     * @return The routing information
+     */
+    public Header peek(byte[] message) {
+        String id = null;
+        boolean hasMethod = false;
+        try {
+            JsonParser parser = JSON_FACTORY.createParser(message);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return Header.INVALID;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+                    if ("id".equals(field)) {
+                        if (token != JsonToken.VALUE_NULL && token.isScalarValue()) {
+                            id = parser.getText();
+                        }
+                    } else if ("method".equals(field)) {
+                        hasMethod = true;
+                    }
+                    // Values can be large, so skip them without creating any objects
+                    parser.skipChildren();
+                }
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            return Header.INVALID;
+        }
+        if (hasMethod) {
+            return new Header(id != null ? Type.REQUEST : Type.NOTIFICATION, id);
+        } else if (id != null) {
+            return new Header(Type.RESPONSE, id);
+        }
+        return Header.INVALID;
+    }
+
+    /**
+     * Bind a message to a JSON-RPC response object
+     *
+     * @param message The message
+     * @return The response or null if the message couldn't be parsed
+     */
+    public JsonRpcResponse decodeResponse(byte[] message) {
+        try {
+            return RESPONSE_READER.readValue(message);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
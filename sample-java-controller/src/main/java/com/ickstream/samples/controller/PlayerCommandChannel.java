@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.ickstream.common.ickp2p.IckP2p;
+import com.ickstream.common.ickp2p.ServiceType;
+import com.ickstream.common.jsonrpc.MessageHandlerAdapter;
+import com.ickstream.protocol.service.player.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Channel used to send Player Protocol commands to a single player without waiting for the previous command to
+ * be answered, so several commands can be in progress towards the same player at the same time. The commands are
+ * sent through a {@link PlayerService} client, the channel only keeps track of the commands in progress and how
+ * long each of them took to be answered.
+ */
+public class PlayerCommandChannel {
+    /**
+     * Handler of the result of a command
+     */
+    public interface ResultHandler {
+        /**
+         * The command has been answered, has failed or has been abandoned
+         *
+         * @param success      true if the player reported success
+         * @param error        Error description if the command failed
+         * @param latencyNanos Time from sending the command until the response was received, -1 if no response was
+         *                     received
+         */
+        void onResult(boolean success, String error, long latencyNanos);
+    }
+
+    private static class PendingCommand {
+        private final ResultHandler handler;
+        private final long sent;
+
+        private PendingCommand(ResultHandler handler, long sent) {
+            this.handler = handler;
+            this.sent = sent;
+        }
+    }
+
+    /**
+     * Reports the response of a command to the handler of the pending command, unless the command already has been
+     * completed or abandoned
+     */
+    private class ResultAdapter<T> extends MessageHandlerAdapter<T> {
+        private final PendingCommand pendingCommand;
+
+        private ResultAdapter(PendingCommand pendingCommand) {
+            this.pendingCommand = pendingCommand;
+        }
+
+        @Override
+        public void onMessage(T message) {
+            complete(pendingCommand, true, null, System.nanoTime() - pendingCommand.sent);
+        }
+
+        @Override
+        public void onError(int code, String message, String data) {
+            complete(pendingCommand, false, code + ": " + message, System.nanoTime() - pendingCommand.sent);
+        }
+
+        @Override
+        public void onTimeout() {
+            complete(pendingCommand, false, "Timeout", -1);
+        }
+    }
+
+    private final PlayerService playerService;
+    private final Set<PendingCommand> pendingCommands = Collections.newSetFromMap(new ConcurrentHashMap<PendingCommand, Boolean>());
+
+    public PlayerCommandChannel(String deviceId, IckP2p ickP2p, ResponseCorrelationTable correlationTable) {
+        CorrelatingIckP2p clientIckP2p = new CorrelatingIckP2p(ickP2p, correlationTable);
+        playerService = new PlayerService(ServiceType.CONTROLLER, clientIckP2p, deviceId);
+        clientIckP2p.setResponseHandler(playerService);
+    }
+
+    /**
+     * Start or pause playback
+     *
+     * @param playing true to start playback, false to pause it
+     * @param handler Handler which should receive the result
+     */
+    public void play(boolean playing, ResultHandler handler) {
+        PlayRequest request = new PlayRequest();
+        request.setPlaying(playing);
+        playerService.play(request, new ResultAdapter<PlayResponse>(register(handler)));
+    }
+
+    /**
+     * Change the volume or mute state
+     *
+     * @param request The new volume level and/or mute state
+     * @param handler Handler which should receive the result
+     */
+    public void setVolume(VolumeRequest request, ResultHandler handler) {
+        playerService.setVolume(request, new ResultAdapter<VolumeResponse>(register(handler)));
+    }
+
+    /**
+     * Replace the playback queue
+     *
+     * @param request The new playback queue
+     * @param handler Handler which should receive the result
+     */
+    public void setTracks(PlaybackQueueSetTracksRequest request, ResultHandler handler) {
+        playerService.setTracks(request, new ResultAdapter<PlaybackQueueModificationResponse>(register(handler)));
+    }
+
+    /**
+     * Give up waiting for the commands which still haven't been answered, each of them is reported as timed out
+     * to its handler and any response arriving later is ignored
+     *
+     * @return Number of abandoned commands
+     */
+    public int abandonPending() {
+        List<PendingCommand> abandoned = new ArrayList<PendingCommand>(pendingCommands);
+        int count = 0;
+        for (PendingCommand pendingCommand : abandoned) {
+            if (complete(pendingCommand, false, "Timeout", -1)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private PendingCommand register(ResultHandler handler) {
+        PendingCommand pendingCommand = new PendingCommand(handler, System.nanoTime());
+        pendingCommands.add(pendingCommand);
+        return pendingCommand;
+    }
+
+    private boolean complete(PendingCommand pendingCommand, boolean success, String error, long latencyNanos) {
+        if (!pendingCommands.remove(pendingCommand)) {
+            return false;
+        }
+        pendingCommand.handler.onResult(success, error, latencyNanos);
+        return true;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk cache of the devices and services registered in the Cloud Core service, so they can be shown immediately
+ * when the controller is started and then be refreshed in the background.
+ * <p/>
+ * The cache is stored as a file with one JSON object per line. Changed entries and removals are appended to the
+ * file, when the file contains too many obsolete lines it's rewritten with only the current entries.
+ * Each entry has a time to live, expired entries are never returned from the cache.
+ */
+public class RegistryCache {
+    /**
+     * Kind of entries representing devices registered in Cloud Core service
+     */
+    public static final String DEVICES = "device";
+
+    /**
+     * Kind of entries representing services available in Cloud Core service
+     */
+    public static final String SERVICES = "service";
+
+    /**
+     * Kind of the header entry which identifies the account the cache belongs to
+     */
+    private static final String OWNER = "owner";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * A single line in the cache file
+     */
+    public static class CacheEntry {
+        private String kind;
+        private String id;
+        private long expires;
+        private boolean removed;
+        private JsonNode data;
+
+        public CacheEntry() {
+        }
+
+        public CacheEntry(String kind, String id, long expires, boolean removed, JsonNode data) {
+            this.kind = kind;
+            this.id = id;
+            this.expires = expires;
+            this.removed = removed;
+            this.data = data;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public void setKind(String kind) {
+            this.kind = kind;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        public void setExpires(long expires) {
+            this.expires = expires;
+        }
+
+        public boolean isRemoved() {
+            return removed;
+        }
+
+        public void setRemoved(boolean removed) {
+            this.removed = removed;
+        }
+
+        public JsonNode getData() {
+            return data;
+        }
+
+        public void setData(JsonNode data) {
+            this.data = data;
+        }
+    }
+
+    private final File file;
+    private final String owner;
+    private final long ttlMillis;
+
+    /**
+     * Current entries, keyed on kind and identity
+     */
+    private final Map<String, CacheEntry> entries = new HashMap<String, CacheEntry>();
+
+    /**
+     * Number of lines in the file which have been replaced by later lines
+     */
+    private int obsoleteLines = 0;
+
+    /**
+     * Indicates if the file has to be rewritten, for example because it belonged to another account
+     */
+    private boolean rewriteNeeded = true;
+
+    /**
+     * Creates a new cache
+     *
+     * @param file        The cache file
+     * @param accessToken The device access token, a cache written with another token is ignored
+     * @param ttl         Time to live of cache entries
+     * @param timeUnit    Time unit of the time to live
+     */
+    public RegistryCache(File file, String accessToken, long ttl, TimeUnit timeUnit) {
+        this.file = file;
+        this.owner = digest(accessToken);
+        this.ttlMillis = timeUnit.toMillis(ttl);
+    }
+
+    private static String key(String kind, String id) {
+        return kind + '/' + id;
+    }
+
+    /**
+     * Read the cache file, a missing or unreadable file results in an empty cache
+     */
+    public synchronized void load() {
+        entries.clear();
+        obsoleteLines = 0;
+        rewriteNeeded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line = reader.readLine();
+                CacheEntry header = line != null ? parse(line) : null;
+                if (header == null || !OWNER.equals(header.getKind()) || !owner.equals(header.getId())) {
+                    // The cache belongs to another account or is corrupt
+                    return;
+                }
+                boolean corrupt = false;
+                while ((line = reader.readLine()) != null) {
+                    CacheEntry entry = parse(line);
+                    if (entry == null) {
+                        // Probably a partially written line, it must be removed from the file since the next
+                        // appended line would otherwise be glued onto it
+                        corrupt = true;
+                        continue;
+                    }
+                    String key = key(entry.getKind(), entry.getId());
+                    if (entries.remove(key) != null) {
+                        obsoleteLines++;
+                    }
+                    if (entry.isRemoved()) {
+                        obsoleteLines++;
+                    } else {
+                        entries.put(key, entry);
+                    }
+                }
+                rewriteNeeded = corrupt;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to read registry cache: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get all entries of a specific kind which haven't expired
+     *
+     * @param kind The kind of entries
+     * @param type The class to bind the entries to
+     * @return The cached objects
+     */
+    public synchronized <T> List<T> get(String kind, Class<T> type) {
+        long now = System.currentTimeMillis();
+        List<T> result = new ArrayList<T>();
+        for (CacheEntry entry : entries.values()) {
+            if (kind.equals(entry.getKind()) && entry.getExpires() > now) {
+                try {
+                    result.add(MAPPER.treeToValue(entry.getData(), type));
+                } catch (IOException e) {
+                    // Ignore entries which can't be read, they will be replaced on next update
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replace all entries of a specific kind with a fresh list retrieved from the Cloud Core service.
+     * Only entries which have changed, or which are about to expire, are written to the file.
+     *
+     * @param kind  The kind of entries
+     * @param items The fresh objects keyed on identity
+     */
+    public synchronized void update(String kind, Map<String, ?> items) {
+        long now = System.currentTimeMillis();
+        List<CacheEntry> changes = new ArrayList<CacheEntry>();
+        for (Map.Entry<String, ?> item : items.entrySet()) {
+            JsonNode data = MAPPER.valueToTree(item.getValue());
+            CacheEntry previous = entries.get(key(kind, item.getKey()));
+            // Unchanged entries are only rewritten when more than half their time to live has passed
+            if (previous == null || !data.equals(previous.getData()) || previous.getExpires() - now < ttlMillis / 2) {
+                CacheEntry entry = new CacheEntry(kind, item.getKey(), now + ttlMillis, false, data);
+                if (entries.put(key(kind, item.getKey()), entry) != null) {
+                    obsoleteLines++;
+                }
+                changes.add(entry);
+            }
+        }
+        for (Iterator<CacheEntry> it = entries.values().iterator(); it.hasNext(); ) {
+            CacheEntry entry = it.next();
+            if (kind.equals(entry.getKind()) && !items.containsKey(entry.getId())) {
+                it.remove();
+                obsoleteLines += 2;
+                changes.add(new CacheEntry(kind, entry.getId(), 0, true, null));
+            }
+        }
+        try {
+            if (rewriteNeeded || obsoleteLines > entries.size()) {
+                rewrite();
+            } else if (changes.size() > 0) {
+                append(changes);
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to write registry cache: " + e.getMessage());
+            rewriteNeeded = true;
+        }
+    }
+
+    /**
+     * Append changed entries to the end of the file
+     *
+     * @param changes The changed entries
+     */
+    private void append(List<CacheEntry> changes) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        try {
+            for (CacheEntry change : changes) {
+                writer.write(MAPPER.writeValueAsString(change));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write a new file with only the current entries and replace the existing file with it
+     */
+    private void rewrite() throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try {
+            writer.write(MAPPER.writeValueAsString(new CacheEntry(OWNER, owner, 0, false, null)));
+            writer.write('\n');
+            for (CacheEntry entry : entries.values()) {
+                writer.write(MAPPER.writeValueAsString(entry));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            // Some platforms can't rename over an existing file
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        }
+        obsoleteLines = 0;
+        rewriteNeeded = false;
+    }
+
+    private static CacheEntry parse(String line) {
+        try {
+            return MAPPER.readValue(line, CacheEntry.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calculate a digest of the access token, so the token itself never is written to disk
+     *
+     * @param accessToken The access token
+     * @return A hex encoded digest
+     */
+    private static String digest(String accessToken) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(accessToken.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
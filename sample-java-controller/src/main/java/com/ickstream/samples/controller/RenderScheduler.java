@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.googlecode.lanterna.screen.Screen;
+import com.googlecode.lanterna.terminal.Terminal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders a console screen on a dedicated thread.
+ * <p/>
+ * Callers only mark the screen as dirty, which never blocks. Dirty notifications are coalesced so the screen is
+ * rendered at most once per frame interval, and only rows which differ from the previous frame are written to
+ * the screen.
+ */
+public class RenderScheduler {
+    /**
+     * Source of the rows to render, called on the render thread
+     */
+    public interface FrameSource {
+        /**
+         * Build a snapshot of all rows on the screen
+         *
+         * @return The rows, from top to bottom
+         */
+        List<Row> buildFrame();
+    }
+
+    /**
+     * A single immutable row on the screen
+     */
+    public static final class Row {
+        private final String text;
+        private final Terminal.Color color;
+
+        public Row(String text) {
+            this(text, null);
+        }
+
+        public Row(String text, Terminal.Color color) {
+            this.text = text;
+            this.color = color;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public Terminal.Color getColor() {
+            return color;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Row)) return false;
+            Row row = (Row) o;
+            return color == row.color && text.equals(row.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * text.hashCode() + (color != null ? color.hashCode() : 0);
+        }
+    }
+
+    private final Screen screen;
+    private final FrameSource frameSource;
+    private final long frameIntervalNanos;
+    private final ScheduledExecutorService renderExecutor;
+
+    /**
+     * Indicates that a render has been scheduled but not yet started
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * Rows written in the previous frame, only accessed from the render thread
+     */
+    private List<Row> previousFrame = Collections.emptyList();
+
+    /**
+     * Time when the previous frame was rendered, written by the render thread and read by {@link #markDirty()}
+     */
+    private volatile long previousFrameTime = 0;
+
+    private volatile boolean started = false;
+
+    /**
+     * Creates a new render scheduler
+     *
+     * @param screen        The screen to render on
+     * @param frameSource   The source of the rows to render
+     * @param maxFrameRate  The maximum number of frames per second
+     */
+    public RenderScheduler(Screen screen, FrameSource frameSource, int maxFrameRate) {
+        this.screen = screen;
+        this.frameSource = frameSource;
+        this.frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maxFrameRate;
+        this.renderExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "render");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start rendering, the first frame is rendered immediately
+     */
+    public void start() {
+        started = true;
+        scheduled.set(false);
+        markDirty();
+    }
+
+    /**
+     * Stop rendering, any pending frame is discarded
+     */
+    public void shutdown() {
+        started = false;
+        renderExecutor.shutdownNow();
+        try {
+            // Make sure we aren't in the middle of a frame when the screen is stopped
+            renderExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Indicate that the screen content has changed, this can be called from any thread and never blocks
+     */
+    public void markDirty() {
+        if (!started || !scheduled.compareAndSet(false, true)) {
+            // A frame is already scheduled and it will include this change
+            return;
+        }
+        long delay = previousFrameTime + frameIntervalNanos - System.nanoTime();
+        try {
+            renderExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // Clear the flag before building the frame, so changes made while rendering schedules a new frame
+                    scheduled.set(false);
+                    render();
+                }
+            }, Math.max(delay, 0), TimeUnit.NANOSECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // Already shutdown
+        }
+    }
+
+    /**
+     * Render a frame, only writing rows which have changed since the previous frame
+     */
+    private void render() {
+        if (!started) {
+            return;
+        }
+        previousFrameTime = System.nanoTime();
+        List<Row> frame = new ArrayList<Row>(frameSource.buildFrame());
+        int rows = Math.max(frame.size(), previousFrame.size());
+        for (int row = 0; row < rows; row++) {
+            Row previous = row < previousFrame.size() ? previousFrame.get(row) : null;
+            Row current = row < frame.size() ? frame.get(row) : null;
+            if (current != null && current.equals(previous)) {
+                continue;
+            }
+            String text = current != null ? current.getText() : "";
+            Terminal.Color color = current != null ? current.getColor() : null;
+            if (previous != null && previous.getText().length() > text.length()) {
+                // Overwrite the remaining part of the previous row
+                text = pad(text, previous.getText().length());
+            }
+            screen.putString(0, row, text, color, null);
+        }
+        previousFrame = frame;
+        screen.setCursorPosition(0, frame.size());
+        screen.refresh();
+    }
+
+    private static String pad(String text, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        sb.append(text);
+        while (sb.length() < length) {
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler for asynchronous requests sent to devices, it limits the number of requests in progress both in total
+ * and per device, so a large number of devices appearing at the same time doesn't flood the network.
+ * <p/>
+ * Failed requests are retried with an exponential backoff with random jitter. Only one request with a specific key
+ * can be queued or in progress at the same time, submitting a duplicate is ignored.
+ */
+public class RequestScheduler {
+    /**
+     * An asynchronous request
+     */
+    public interface Request {
+        /**
+         * Start the request, the request must call exactly one of the methods of the completion when it's finished
+         *
+         * @param completion Callback used to report the result of the request
+         */
+        void execute(Completion completion);
+
+        /**
+         * Called when the request has failed and will not be retried
+         *
+         * @param reason The reason of the last failure
+         */
+        void abandon(String reason);
+    }
+
+    /**
+     * Callback which a request uses to report its result
+     */
+    public interface Completion {
+        void succeeded();
+
+        /**
+         * The request failed, it will be retried if the maximum number of attempts hasn't been reached
+         *
+         * @param reason Description of the failure
+         */
+        void failed(String reason);
+    }
+
+    private class Task implements Completion {
+        private final String key;
+        private final String deviceId;
+        private final Request request;
+        private final long submitted = System.nanoTime();
+        private int attempt = 0;
+        private boolean finished = false;
+
+        private Task(String key, String deviceId, Request request) {
+            this.key = key;
+            this.deviceId = deviceId;
+            this.request = request;
+        }
+
+        @Override
+        public void succeeded() {
+            if (complete()) {
+                synchronized (RequestScheduler.this) {
+                    deactivate(this);
+                    completed++;
+                    totalLatency += System.nanoTime() - submitted;
+                }
+                dispatch();
+            }
+        }
+
+        @Override
+        public void failed(String reason) {
+            if (complete()) {
+                retryOrAbandon(this, reason);
+            }
+        }
+
+        /**
+         * Mark the current attempt as finished
+         *
+         * @return true if the attempt was in progress, false if it already has been reported as finished
+         */
+        private boolean complete() {
+            synchronized (RequestScheduler.this) {
+                if (finished) {
+                    return false;
+                }
+                finished = true;
+                inFlight--;
+                decrement(deviceId);
+                return true;
+            }
+        }
+    }
+
+    private final int maxInFlight;
+    private final int maxInFlightPerDevice;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Random random = new Random();
+    private final ScheduledExecutorService retryExecutor;
+
+    /**
+     * Requests waiting to be started, guarded by this
+     */
+    private final LinkedList<Task> queue = new LinkedList<Task>();
+
+    /**
+     * All requests which are queued, in progress or waiting for retry keyed on request key, guarded by this
+     */
+    private final Map<String, Task> activeTasks = new HashMap<String, Task>();
+
+    /**
+     * Number of requests in progress per device, guarded by this
+     */
+    private final Map<String, Integer> inFlightPerDevice = new HashMap<String, Integer>();
+
+    private int inFlight = 0;
+    private long completed = 0;
+    private long abandoned = 0;
+    private long retries = 0;
+    private long totalLatency = 0;
+
+    /**
+     * Creates a new scheduler
+     *
+     * @param maxInFlight          Maximum number of requests in progress
+     * @param maxInFlightPerDevice Maximum number of requests in progress towards a single device
+     * @param maxAttempts          Maximum number of times a request is attempted
+     * @param initialBackoffMillis Delay before the first retry, in milliseconds
+     * @param maxBackoffMillis     Maximum delay before a retry, in milliseconds
+     */
+    public RequestScheduler(int maxInFlight, int maxInFlightPerDevice, int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerDevice = maxInFlightPerDevice;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "request-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Submit a request, it's started as soon as the limits allow it
+     *
+     * @param key      Key identifying the request, a request with the same key as an active request is ignored
+     * @param deviceId The device the request is sent to
+     * @param request  The request
+     * @return true if the request was queued, false if it was a duplicate
+     */
+    public boolean submit(String key, String deviceId, Request request) {
+        synchronized (this) {
+            if (activeTasks.containsKey(key)) {
+                return false;
+            }
+            Task task = new Task(key, deviceId, request);
+            activeTasks.put(key, task);
+            queue.add(task);
+        }
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Remove all queued requests for a device, typically because it has disappeared, requests in progress are
+     * not affected but they will not be retried
+     *
+     * @param deviceId The device identity
+     */
+    public void cancel(String deviceId) {
+        synchronized (this) {
+            for (Iterator<Task> it = queue.iterator(); it.hasNext(); ) {
+                if (it.next().deviceId.equals(deviceId)) {
+                    it.remove();
+                }
+            }
+            for (Iterator<Task> it = activeTasks.values().iterator(); it.hasNext(); ) {
+                if (it.next().deviceId.equals(deviceId)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        retryExecutor.shutdownNow();
+    }
+
+    /**
+     * Start as many queued requests as the limits allow
+     */
+    private void dispatch() {
+        List<Task> tasks = new ArrayList<Task>();
+        synchronized (this) {
+            for (Iterator<Task> it = queue.iterator(); it.hasNext() && inFlight < maxInFlight; ) {
+                Task task = it.next();
+                Integer deviceCount = inFlightPerDevice.get(task.deviceId);
+                if (deviceCount == null || deviceCount < maxInFlightPerDevice) {
+                    it.remove();
+                    inFlight++;
+                    inFlightPerDevice.put(task.deviceId, deviceCount == null ? 1 : deviceCount + 1);
+                    task.attempt++;
+                    task.finished = false;
+                    tasks.add(task);
+                }
+            }
+        }
+        // Start the requests without holding the lock since they might complete immediately
+        for (Task task : tasks) {
+            try {
+                task.request.execute(task);
+            } catch (RuntimeException e) {
+                task.failed(e.toString());
+            }
+        }
+    }
+
+    private void retryOrAbandon(final Task task, String reason) {
+        if (!isActive(task)) {
+            // Cancelled while in progress
+            dispatch();
+            return;
+        }
+        if (task.attempt >= maxAttempts) {
+            synchronized (this) {
+                deactivate(task);
+                abandoned++;
+            }
+            task.request.abandon(reason);
+            dispatch();
+            return;
+        }
+        // Exponential backoff with full jitter in the upper half, so devices failing together don't retry together
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(task.attempt - 1, 20));
+        long delay;
+        synchronized (random) {
+            delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+        }
+        synchronized (this) {
+            retries++;
+        }
+        try {
+            retryExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (RequestScheduler.this) {
+                        if (activeTasks.get(task.key) != task) {
+                            // Cancelled while waiting
+                            return;
+                        }
+                        queue.add(task);
+                    }
+                    dispatch();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+        dispatch();
+    }
+
+    private synchronized boolean isActive(Task task) {
+        return activeTasks.get(task.key) == task;
+    }
+
+    /**
+     * Remove a finished request so a new request with the same key can be submitted, must be called while
+     * holding the lock
+     */
+    private void deactivate(Task task) {
+        if (activeTasks.get(task.key) == task) {
+            activeTasks.remove(task.key);
+        }
+    }
+
+    private void decrement(String deviceId) {
+        Integer deviceCount = inFlightPerDevice.get(deviceId);
+        if (deviceCount == null || deviceCount <= 1) {
+            inFlightPerDevice.remove(deviceId);
+        } else {
+            inFlightPerDevice.put(deviceId, deviceCount - 1);
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getCompletedCount() {
+        return completed;
+    }
+
+    public synchronized long getAbandonedCount() {
+        return abandoned;
+    }
+
+    public synchronized long getRetryCount() {
+        return retries;
+    }
+
+    /**
+     * Get the average time from submission until successful completion, including any retries
+     *
+     * @return The average latency in milliseconds
+     */
+    public synchronized long getAverageLatencyMillis() {
+        return completed > 0 ? TimeUnit.NANOSECONDS.toMillis(totalLatency / completed) : 0;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.ickstream.common.jsonrpc.JsonRpcResponseHandler;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of outstanding JSON-RPC requests sent to other devices, so a response can be handed directly to
+ * the client which sent the request instead of offering it to all clients related to the source device.
+ * <p/>
+ * Requests are keyed on the target device identity and the JSON-RPC id, entries which never get a response
+ * are removed by a periodic sweep.
+ */
+public class ResponseCorrelationTable {
+    /**
+     * Decoder used to read the id of outgoing requests
+     */
+    private final MessageDecoder messageDecoder = new MessageDecoder();
+
+    /**
+     * Outstanding requests, keyed on device identity and JSON-RPC id
+     */
+    private final ConcurrentMap<String, PendingRequest> pendingRequests = new ConcurrentHashMap<String, PendingRequest>();
+
+    /**
+     * Time in nanoseconds after which an outstanding request is considered abandoned
+     */
+    private final long timeoutNanos;
+
+    /**
+     * Executor which periodically removes abandoned requests
+     */
+    private final ScheduledExecutorService sweeper;
+
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong orphaned = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private static class PendingRequest {
+        private final JsonRpcResponseHandler handler;
+        private final long deadline;
+
+        private PendingRequest(JsonRpcResponseHandler handler, long deadline) {
+            this.handler = handler;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Creates a new correlation table
+     *
+     * @param timeout  Time after which a request without response is removed from the table
+     * @param timeUnit Time unit of the timeout
+     */
+    public ResponseCorrelationTable(long timeout, TimeUnit timeUnit) {
+        this.timeoutNanos = timeUnit.toNanos(timeout);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "response-correlation-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long sweepInterval = Math.max(timeUnit.toMillis(timeout) / 4, 100);
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static String key(String deviceId, String id) {
+        return deviceId + '\u0000' + id;
+    }
+
+    /**
+     * Register an outgoing message, if it's a JSON-RPC request with an id the handler will receive the response
+     *
+     * @param targetDeviceId The device the message is sent to
+     * @param message        The message
+     * @param handler        The client which should handle the response
+     */
+    public void register(String targetDeviceId, byte[] message, JsonRpcResponseHandler handler) {
+        MessageDecoder.Header header = messageDecoder.peek(message);
+        if (header.getType() == MessageDecoder.Type.REQUEST) {
+            pendingRequests.put(key(targetDeviceId, header.getId()), new PendingRequest(handler, System.nanoTime() + timeoutNanos));
+        }
+    }
+
+    /**
+     * Remove and return the client waiting for the response with the specified id
+     *
+     * @param sourceDeviceId The device which sent the response
+     * @param id             The JSON-RPC id of the response as text
+     * @return The client which sent the request or null if no request is outstanding
+     */
+    public JsonRpcResponseHandler take(String sourceDeviceId, String id) {
+        PendingRequest pendingRequest = null;
+        if (id != null) {
+            pendingRequest = pendingRequests.remove(key(sourceDeviceId, id));
+        }
+        if (pendingRequest == null) {
+            orphaned.incrementAndGet();
+            return null;
+        }
+        matched.incrementAndGet();
+        return pendingRequest.handler;
+    }
+
+    /**
+     * Remove all outstanding requests for a device, typically because it has disappeared from the network
+     *
+     * @param deviceId The device identity
+     */
+    public void removeDevice(String deviceId) {
+        String prefix = deviceId + '\u0000';
+        for (Iterator<String> it = pendingRequests.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove requests which have been outstanding longer than the timeout
+     */
+    void sweep() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<String, PendingRequest>> it = pendingRequests.entrySet().iterator(); it.hasNext(); ) {
+            if (now - it.next().getValue().deadline > 0) {
+                it.remove();
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    public long getMatchedCount() {
+        return matched.get();
+    }
+
+    public long getOrphanedCount() {
+        return orphaned.get();
+    }
+
+    public long getExpiredCount() {
+        return expired.get();
+    }
+}
@@ -33,10 +33,11 @@ import com.googlecode.lanterna.input.Key;
 import com.googlecode.lanterna.screen.Screen;
 import com.googlecode.lanterna.terminal.Terminal;
 import com.ickstream.common.ickp2p.*;
-import com.ickstream.common.jsonrpc.JsonHelper;
 import com.ickstream.common.jsonrpc.JsonRpcResponse;
+import com.ickstream.common.jsonrpc.JsonRpcResponseHandler;
 import com.ickstream.common.jsonrpc.MessageHandlerAdapter;
 import com.ickstream.protocol.common.ChunkedRequest;
+import com.ickstream.protocol.common.ChunkedResponse;
 import com.ickstream.protocol.common.IckStreamTrustManager;
 import com.ickstream.protocol.common.NetworkAddressHelper;
 import com.ickstream.protocol.common.exception.ServiceException;
@@ -48,9 +49,14 @@ import com.ickstream.protocol.service.content.HttpContentService;
 import com.ickstream.protocol.service.core.*;
 import com.ickstream.protocol.service.player.PlayerConfigurationResponse;
 import com.ickstream.protocol.service.player.PlayerService;
+import com.ickstream.samples.common.SortedIndex;
 
-import java.io.UnsupportedEncodingException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
@@ -65,19 +71,81 @@ public class SampleController extends DiscoveryAdapter implements MessageListene
     private static final String API_KEY = "8DB02DEB-9442-4D75-B444-52FDCC01C9E3";
 
     /**
-     * Players discovered
+     * Number of devices or services to request in each Cloud Core request
      */
-    private final Map<String, Device> availablePlayers = new HashMap<String, Device>();
+    private static final int CHUNK_SIZE = 100;
 
     /**
-     * Services discovered (both online and local)
+     * Maximum number of Cloud Core requests for chunks of devices or services to run in parallel
      */
-    private final Map<String, Service> availableServices = new HashMap<String, Service>();
+    private static final int CHUNK_PARALLELISM = 3;
 
     /**
-     * All devices registered in Cloud Core service
+     * File where the devices and services registered in Cloud Core service are cached between runs
      */
-    private final Map<String, DeviceResponse> registeredDevices = new HashMap<String, DeviceResponse>();
+    private static final File REGISTRY_CACHE_FILE = new File(System.getProperty("user.home"), ".ickstream/sample-controller-registry.jsonl");
+
+    /**
+     * Number of days an entry in the registry cache is valid without being refreshed
+     */
+    private static final int REGISTRY_CACHE_TTL_DAYS = 7;
+
+    /**
+     * Maximum time in milliseconds to wait for the responses of batch commands
+     */
+    private static final long BATCH_COMMAND_TIMEOUT = 30000;
+
+    /**
+     * File where a snapshot of the request metrics is written periodically
+     */
+    private static final File METRICS_SNAPSHOT_FILE = new File(System.getProperty("user.home"), ".ickstream/sample-controller-metrics.txt");
+
+    /**
+     * Number of seconds between each metrics snapshot
+     */
+    private static final int METRICS_SNAPSHOT_PERIOD = 60;
+
+    /**
+     * Maximum number of callbacks from the ickStream P2P module waiting to be processed before the callback
+     * threads are blocked
+     */
+    private static final int EVENT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Maximum number of players and of services listed on the screen, only the visible entries are rendered
+     */
+    private static final int MAX_LISTED_DEVICES = 20;
+
+    /**
+     * Players and services discovered and devices registered in Cloud Core service
+     */
+    private final DeviceRegistry registry = new DeviceRegistry();
+
+    /**
+     * Outstanding requests sent to players and local services, used to route responses to the right client
+     */
+    private final ResponseCorrelationTable correlationTable = new ResponseCorrelationTable(60, TimeUnit.SECONDS);
+
+    /**
+     * Scheduler which limits the number of concurrent requests for player and service information
+     * and retries failed requests
+     */
+    private final RequestScheduler requestScheduler = new RequestScheduler(16, 2, 4, 500, 30000);
+
+    /**
+     * Latency and failure metrics of requests to devices and the Cloud Core service, also available through JMX
+     */
+    private final ControllerMetrics metrics = new ControllerMetrics();
+
+    /**
+     * Event loop where all callbacks from the ickStream P2P module are processed in order
+     */
+    private final EventLoop eventLoop = new EventLoop(EVENT_QUEUE_CAPACITY);
+
+    /**
+     * Decoder of incoming messages, shared by all callback threads
+     */
+    private final MessageDecoder messageDecoder = new MessageDecoder();
 
     /**
      * Storage of settings
@@ -87,7 +155,7 @@ public class SampleController extends DiscoveryAdapter implements MessageListene
     /**
      * Console screen used for user interface
      */
-    private final Screen screen = new Screen(TerminalFacade.createTerminal());
+    private Screen screen;
 
     /**
      * Current user
@@ -100,23 +168,149 @@ public class SampleController extends DiscoveryAdapter implements MessageListene
     private IckP2p ickP2p = null;
 
     /**
-     * Dummy object which we use to handle synchronization to make the code thread safe without having to
-     * synchronize whole methods
+     * true if the Cloud Core service shouldn't be used, only the devices found through ickStream P2P are shown
+     */
+    private final boolean offline;
+
+    /**
+     * Renders the console user interface on its own thread, only available when running interactively
+     */
+    private volatile RenderScheduler renderScheduler;
+
+    /**
+     * Stream for informational messages, standard error is used in batch mode since standard output then
+     * is reserved for the command results
+     */
+    private PrintStream console = System.out;
+
+    /**
+     * Executor which runs the Cloud Core requests needed during startup in parallel
      */
-    private static final Object syncObject = new Object();
+    private final ExecutorService bootstrapExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "bootstrap");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Time when the controller was started, in nanoseconds
+     */
+    private long startTime;
+
+    /**
+     * Time from start until the first rendering of the console user interface, in milliseconds, or null if nothing
+     * has been rendered yet
+     */
+    private volatile Long startupDuration = null;
 
+    /**
+     * true if the metrics should be registered as JMX MBeans and written to {@link #METRICS_SNAPSHOT_FILE}
+     */
+    private boolean metricsEnabled = false;
 
     /**
-     * Dummy main which just launch the {@link #run(String)} method
+     * Set when {@link #shutdown()} has been called, so it only runs once
+     */
+    private final AtomicBoolean shutdown = new AtomicBoolean(false);
+
+
+
+    public SampleController() {
+        this(null);
+    }
+
+    /**
+     * Create a controller which uses the specified ickStream P2P implementation instead of the native one
+     * and doesn't access the Cloud Core service, used to run the controller without network
      *
-     * @param args Arguments, takes a user access token as argument
+     * @param ickP2p The ickStream P2P implementation to use, or null to use the native one and the Cloud Core service
      */
-    public static void main(String[] args) throws BackingStoreException, InterruptedException {
+    public SampleController(IckP2p ickP2p) {
+        this.ickP2p = ickP2p;
+        this.offline = ickP2p != null;
+
+        // Refresh the console user interface whenever a player or service is changed
+        registry.addListener(new RegistryListener() {
+            @Override
+            public void onPlayerChanged(Device player) {
+                printDevicesAndServices();
+            }
+
+            @Override
+            public void onPlayerRemoved(String deviceId) {
+                printDevicesAndServices();
+            }
+
+            @Override
+            public void onServiceChanged(Service service) {
+                printDevicesAndServices();
+            }
+
+            @Override
+            public void onServiceRemoved(String serviceId) {
+                printDevicesAndServices();
+            }
+        });
+    }
+
+    /**
+     * Enable publishing of the request metrics through JMX and periodic snapshots written to
+     * ~/.ickstream/sample-controller-metrics.txt, must be called before the controller is started
+     *
+     * @param metricsEnabled true if the metrics should be published
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /**
+     * Dummy main which just launch the {@link #run(String)} method, or the {@link #runBatch(String, List, long)}
+     * method if batch commands are specified
+     * <p/>
+     * Usage: SampleController [--batch scriptFile] [--exec command]... [--discovery-wait seconds]
+     * [--synthetic scenarioFile] [--metrics] [userAccessToken]
+     * <p/>
+     * With --synthetic the controller runs against a simulated network described by a {@link SyntheticScenario}
+     * instead of the real network and Cloud Core service. With --metrics the request metrics are published through
+     * JMX and written to a file periodically, see {@link #setMetricsEnabled(boolean)}
+     *
+     * @param args Arguments, takes batch options, a synthetic scenario and a user access token as argument
+     */
+    public static void main(String[] args) throws BackingStoreException, InterruptedException, IOException {
         IckStreamTrustManager.init();
-        if (args.length == 0) {
-            new SampleController().run(null);
+        String userAccessToken = null;
+        List<String> commands = new ArrayList<String>();
+        boolean batch = false;
+        long discoveryWait = 5000;
+        IckP2p syntheticIckP2p = null;
+        boolean metricsEnabled = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--batch") && i + 1 < args.length) {
+                commands.addAll(BatchCommandRunner.readScript(new File(args[++i])));
+                batch = true;
+            } else if (args[i].equals("--exec") && i + 1 < args.length) {
+                commands.add(args[++i]);
+                batch = true;
+            } else if (args[i].equals("--discovery-wait") && i + 1 < args.length) {
+                discoveryWait = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("--synthetic") && i + 1 < args.length) {
+                syntheticIckP2p = new SyntheticIckP2p(SyntheticScenario.load(new File(args[++i])));
+            } else if (args[i].equals("--metrics")) {
+                metricsEnabled = true;
+            } else {
+                userAccessToken = args[i];
+            }
+        }
+        SampleController controller = new SampleController(syntheticIckP2p);
+        controller.setMetricsEnabled(metricsEnabled);
+        if (batch) {
+            boolean success = controller.runBatch(userAccessToken, commands, discoveryWait);
+            System.exit(success ? 0 : 1);
         } else {
-            new SampleController().run(args[0]);
+            controller.run(userAccessToken);
         }
     }
 
@@ -127,6 +321,99 @@ public class SampleController extends DiscoveryAdapter implements MessageListene
      * @param userAccessToken A user access token or null if previously registered device access token should be used
      */
     public void run(String userAccessToken) throws BackingStoreException, InterruptedException {
+        addShutdownHook();
+        if (!start(userAccessToken)) {
+            return;
+        }
+
+        // Initialize console and print information about discovered devices and services
+        screen = new Screen(TerminalFacade.createTerminal());
+        screen.startScreen();
+        renderScheduler = new RenderScheduler(screen, new RenderScheduler.FrameSource() {
+            @Override
+            public List<RenderScheduler.Row> buildFrame() {
+                return buildDevicesAndServicesFrame();
+            }
+        }, 10);
+        renderScheduler.start();
+
+        // Wait for Ctrl+c
+        Key key = screen.readInput();
+        while (key == null || (!(key.isCtrlPressed() && key.getCharacter() == 'c'))) {
+            Thread.sleep(20);
+            key = screen.readInput();
+        }
+
+        // Shutdown ickStream P2P module
+        shutdown();
+    }
+
+    /**
+     * Run a list of batch commands without any console user interface, the result of each command on each player
+     * is printed as a JSON object per line on standard output
+     *
+     * @param userAccessToken   A user access token or null if previously registered device access token should be used
+     * @param commands          The commands to run, see {@link BatchCommandRunner} for the syntax
+     * @param discoveryWait     Time in milliseconds to wait for players to be discovered before running the commands
+     * @return true if all commands succeeded on all players
+     */
+    public boolean runBatch(String userAccessToken, List<String> commands, long discoveryWait) throws BackingStoreException, InterruptedException {
+        // Parse the whole script before connecting so an invalid script never sends anything
+        BatchCommandRunner runner;
+        try {
+            runner = new BatchCommandRunner(commands, System.out);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+
+        // Standard output is reserved for the command results
+        console = System.err;
+        addShutdownHook();
+        if (!start(userAccessToken)) {
+            return false;
+        }
+        try {
+            console.println("Waiting " + discoveryWait + " ms for players to be discovered...");
+            Thread.sleep(discoveryWait);
+            return runner.run(registry, ickP2p, correlationTable, BATCH_COMMAND_TIMEOUT);
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Setup a shutdown hook so we can cleanly stop ickStream P2P if the process is killed, only used when the
+     * controller owns the process
+     */
+    private void addShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        }));
+    }
+
+    /**
+     * Authenticate towards the Cloud Core service and start discovery on the local network, no user interface
+     * is shown. No shutdown hook is installed, the caller is responsible for calling {@link #shutdown()}
+     *
+     * @param userAccessToken A user access token or null if previously registered device access token should be used
+     * @return true if the startup was successful
+     */
+    public boolean start(String userAccessToken) throws BackingStoreException, InterruptedException {
+        startTime = System.nanoTime();
+        if (metricsEnabled) {
+            metrics.register();
+            metrics.startSnapshots(METRICS_SNAPSHOT_FILE, METRICS_SNAPSHOT_PERIOD, TimeUnit.SECONDS);
+        }
+
+        if (offline) {
+            console.println("Running without Cloud Core service");
+            return startDiscovery("Offline Sample Controller", UUID.randomUUID().toString().toUpperCase(), "127.0.0.1");
+        }
+
         // Get previously used device access token from preferences
         String deviceAccessToken = preferences.get("accessToken", null);
         String accessToken = deviceAccessToken;
@@ -134,167 +421,412 @@ public class SampleController extends DiscoveryAdapter implements MessageListene
         if (userAccessToken == null && deviceAccessToken == null) {
             // We exit if no user access token has been specified and no device access token exists
             System.err.println("No access token available, specify a user access token as parameter");
-            return;
+            return false;
         } else if (userAccessToken != null) {
             // We use the user access token specified as input
             accessToken = userAccessToken;
         }
 
-        System.out.println("Using access token: " + accessToken);
-
-        // Get a client class for the Cloud Core service
-        CoreService coreService = CoreServiceFactory.getCoreService(accessToken);
-
-        try {
-            // Get information about current user
-            user = coreService.getUser();
-        } catch (UnauthorizedException e) {
-            System.err.println("Unauthorized access, probably an invalid access token");
-            preferences.remove("accessToken");
-            return;
-        } catch (ServiceException e) {
-            System.err.println("Can't reach the Cloud Core service");
-            e.printStackTrace();
-            return;
-        } catch (ServiceTimeoutException e) {
-            System.err.println("Can't reach the Cloud Core service within specified timeout");
-            return;
-        }
-
-        System.out.println("Welcome " + user.getName());
+        console.println("Using access token: " + accessToken);
+        final String initialAccessToken = accessToken;
 
         // Detect IP address of current device
-        String ipAddress = NetworkAddressHelper.getNetworkAddress();
+        final String ipAddress = NetworkAddressHelper.getNetworkAddress();
 
-        DeviceResponse device;
-        if (deviceAccessToken == null) {
-            // If we don't have a device access token we need to register the current device to get one
-            device = registerDevice(coreService, ipAddress);
-            if (device instanceof AddDeviceResponse) {
-                deviceAccessToken = ((AddDeviceResponse) device).getAccessToken();
-            }
-        } else {
-            // Update the IP address in the cloud server, this is done for two reasons:
-            // - We want to ensure we have a valid device access token, if we don't this call will fail
-            // - We want to update the IP-address in the cloud so the device can be reached from
-            //   remote locations when support for this is available
-            SetDeviceAddressRequest request = new SetDeviceAddressRequest(ipAddress);
-            try {
-                device = coreService.setDeviceAddress(request);
-            } catch (UnauthorizedException e) {
-                if (userAccessToken != null) {
-                    device = registerDevice(coreService, ipAddress);
-                    if (device instanceof AddDeviceResponse) {
-                        deviceAccessToken = ((AddDeviceResponse) device).getAccessToken();
-                    }
-                } else {
-                    System.err.println("Unauthorized access, probably an invalid access token");
-                    return;
+        // Get information about current user and the current device in parallel, each request gets its own
+        // Cloud Core client so the requests don't share any state
+        Future<GetUserResponse> userFuture = bootstrapExecutor.submit(new Callable<GetUserResponse>() {
+            @Override
+            public GetUserResponse call() throws Exception {
+                long requestTime = System.nanoTime();
+                try {
+                    GetUserResponse response = CoreServiceFactory.getCoreService(initialAccessToken).getUser();
+                    metrics.recordResponse("CoreService.getUser", null, requestTime);
+                    return response;
+                } catch (ServiceTimeoutException e) {
+                    metrics.recordTimeout("CoreService.getUser", null);
+                    throw e;
+                } catch (ServiceException e) {
+                    metrics.recordError("CoreService.getUser", null);
+                    throw e;
                 }
-            } catch (ServiceException e) {
+            }
+        });
+        Future<DeviceResponse> deviceFuture = bootstrapExecutor.submit(new DeviceRegistrationTask(accessToken, deviceAccessToken != null, userAccessToken != null, ipAddress));
+
+        // If we already have a device access token, we don't have to wait for the device to be verified before
+        // we start to retrieve the devices and services registered in the Cloud Core service. If the token turns
+        // out to be invalid these requests will fail and the device will have to be registered again anyway
+        boolean registryRequested = false;
+        if (userAccessToken == null) {
+            requestRegisteredDevicesAndServices(deviceAccessToken);
+            registryRequested = true;
+        }
+
+        try {
+            user = userFuture.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnauthorizedException) {
+                System.err.println("Unauthorized access, probably an invalid access token");
+                preferences.remove("accessToken");
+            } else if (e.getCause() instanceof ServiceException) {
                 System.err.println("Can't reach the Cloud Core service");
-                return;
-            } catch (ServiceTimeoutException e) {
+                e.getCause().printStackTrace();
+            } else if (e.getCause() instanceof ServiceTimeoutException) {
                 System.err.println("Can't reach the Cloud Core service within specified timeout");
-                return;
+            } else {
+                e.getCause().printStackTrace();
             }
+            bootstrapExecutor.shutdownNow();
+            return false;
         }
-        // Make sure we have configured the Cloud Core service client with a device access token
-        coreService.setAccessToken(deviceAccessToken);
-        System.out.println("Using access token: " + deviceAccessToken);
 
-        System.out.println("Current device is: " + device.getName() + " (" + device.getId() + ")");
+        console.println("Welcome " + user.getName());
 
-        // Find all devices registered in the Cloud Core service for the current user
+        DeviceResponse device;
         try {
-            FindDevicesResponse response = coreService.findDevices(new ChunkedRequest());
-            for (DeviceResponse deviceResponse : response.getItems()) {
-                registeredDevices.put(deviceResponse.getId(), deviceResponse);
+            device = deviceFuture.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnauthorizedException) {
+                System.err.println("Unauthorized access, probably an invalid access token");
+            } else if (e.getCause() instanceof ServiceException) {
+                System.err.println("Can't reach the Cloud Core service");
+            } else if (e.getCause() instanceof ServiceTimeoutException) {
+                System.err.println("Can't reach the Cloud Core service within specified timeout");
+            } else {
+                e.getCause().printStackTrace();
             }
-        } catch (ServiceException e) {
-            System.err.println("Unable to retrieve registered devices");
-            return;
-        } catch (ServiceTimeoutException e) {
-            System.err.println("Timeout when retrieving registered devices");
-            return;
+            bootstrapExecutor.shutdownNow();
+            return false;
         }
+        if (device == null) {
+            // Registration failed, the reason has already been printed
+            bootstrapExecutor.shutdownNow();
+            return false;
+        }
+        if (device instanceof AddDeviceResponse) {
+            // The device was registered during startup, so we need to use its new device access token
+            deviceAccessToken = ((AddDeviceResponse) device).getAccessToken();
+        }
+        console.println("Using access token: " + deviceAccessToken);
 
-        // Find all services available in the Cloud Core service for the current user
-        try {
-            FindServicesResponse response = coreService.findServices(new FindServicesRequest("content"));
-            for (ServiceResponse serviceResponse : response.getItems()) {
-                final Service service = new Service(serviceResponse);
-                availableServices.put(serviceResponse.getId(), service);
-
-                // Request additional information about the service
-                // This is mainly here to show the concept, it doesn't really return any more information than
-                // what we already have except for some image urls
-                getMoreInformationAboutOnlineService(service, serviceResponse.getUrl(), deviceAccessToken);
-            }
-        } catch (ServiceException e) {
-            System.err.println("Unable to retrieve registered devices");
-            return;
-        } catch (ServiceTimeoutException e) {
-            System.err.println("Timeout when retrieving registered devices");
-            return;
+        console.println("Current device is: " + device.getName() + " (" + device.getId() + ")");
+
+        // Find all devices and services registered in the Cloud Core service for the current user, unless
+        // we already started this before the device was verified
+        if (!registryRequested || device instanceof AddDeviceResponse) {
+            requestRegisteredDevicesAndServices(deviceAccessToken);
         }
 
-        // Setup a shutdown hook so we can cleanly stop ickStream P2P if the process is killed
-        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
-            @Override
-            public void run() {
-                shutdown();
-            }
-        }));
+        return startDiscovery(device.getName(), device.getId(), ipAddress);
+    }
+
+    /**
+     * Start the ickStream P2P module and announce the current device on the network
+     *
+     * @param deviceName Name of the current device
+     * @param deviceId   Identity of the current device
+     * @param ipAddress  IP address of the network interface to perform discovery on
+     * @return true if the discovery was successfully started
+     */
+    private boolean startDiscovery(String deviceName, String deviceId, String ipAddress) {
+        // Callbacks are only queued by the ickStream P2P threads and processed on the event loop
+        eventLoop.start();
 
         // Setup ickStream P2P module and announce the current device on the network
-        ickP2p = new IckP2pJNI();
+        if (ickP2p == null) {
+            ickP2p = new IckP2pJNI();
+        }
         // Setup device listener so we get information about new, updated, removed devices on local network
         ickP2p.addDiscoveryListener(this);
         // Setup message listener so we can receive messages from other devices on local network
         ickP2p.addMessageListener(this);
-        System.out.println("Initiating discovery on local network...");
+        console.println("Initiating discovery on local network...");
         try {
             // Initialize ickP2p
-            ickP2p.create(device.getName(), device.getId(), null, null, null, ServiceType.CONTROLLER);
+            ickP2p.create(deviceName, deviceId, null, null, null, ServiceType.CONTROLLER);
             // Add all network interfaces which we want to perform discovery on
             ickP2p.addInterface(ipAddress, null);
             // Start the discovery
             ickP2p.resume();
 
-            // Initialize console and print information about discovered devices and services
-            screen.startScreen();
-            printDevicesAndServices();
-
-            // Wait for Ctrl+c
-            Key key = screen.readInput();
-            while (key == null || (!(key.isCtrlPressed() && key.getCharacter() == 'c'))) {
-                Thread.sleep(20);
-                key = screen.readInput();
-            }
-
-            // Shutdown ickStream P2P module
-            shutdown();
+            return true;
         } catch (IckP2pException e) {
             System.err.println("Failed to initialize ickP2p");
             e.printStackTrace();
+            return false;
         }
     }
 
+    /**
+     * Asynchronous task which verifies the current device in the Cloud Core service, registers the device if
+     * it isn't registered already
+     */
+    private class DeviceRegistrationTask implements Callable<DeviceResponse> {
+        private final String accessToken;
+        private final boolean registered;
+        private final boolean canRegister;
+        private final String ipAddress;
+
+        private DeviceRegistrationTask(String accessToken, boolean registered, boolean canRegister, String ipAddress) {
+            this.accessToken = accessToken;
+            this.registered = registered;
+            this.canRegister = canRegister;
+            this.ipAddress = ipAddress;
+        }
+
+        @Override
+        public DeviceResponse call() throws Exception {
+            CoreService coreService = CoreServiceFactory.getCoreService(accessToken);
+            if (!registered) {
+                // If we don't have a device access token we need to register the current device to get one
+                return registerDevice(coreService, ipAddress);
+            }
+            // Update the IP address in the cloud server, this is done for two reasons:
+            // - We want to ensure we have a valid device access token, if we don't this call will fail
+            // - We want to update the IP-address in the cloud so the device can be reached from
+            //   remote locations when support for this is available
+            long requestTime = System.nanoTime();
+            try {
+                DeviceResponse response = coreService.setDeviceAddress(new SetDeviceAddressRequest(ipAddress));
+                metrics.recordResponse("CoreService.setDeviceAddress", null, requestTime);
+                return response;
+            } catch (UnauthorizedException e) {
+                metrics.recordError("CoreService.setDeviceAddress", null);
+                if (canRegister) {
+                    return registerDevice(coreService, ipAddress);
+                }
+                throw e;
+            } catch (ServiceTimeoutException e) {
+                metrics.recordTimeout("CoreService.setDeviceAddress", null);
+                throw e;
+            } catch (ServiceException e) {
+                metrics.recordError("CoreService.setDeviceAddress", null);
+                throw e;
+            }
+        }
+    }
 
     /**
-     * Shutdown everything
+     * Start asynchronous retrieval of the devices and services registered in the Cloud Core service for the
+     * current user. Devices discovered before the registered devices are available will be updated when the
+     * response arrives. The items are retrieved in chunks and added to the registry as each chunk arrives.
+     * <p/>
+     * Devices and services from the previous run are read from the registry cache first so they can be shown
+     * immediately, when the retrieval is finished the registry and the cache are reconciled with the result.
+     *
+     * @param deviceAccessToken The device access token to use when accessing the Cloud Core service
      */
-    private void shutdown() {
+    private void requestRegisteredDevicesAndServices(final String deviceAccessToken) {
+        final RegistryCache cache = new RegistryCache(REGISTRY_CACHE_FILE, deviceAccessToken, REGISTRY_CACHE_TTL_DAYS, TimeUnit.DAYS);
+        cache.load();
+        final List<DeviceResponse> cachedDevices = cache.get(RegistryCache.DEVICES, DeviceResponse.class);
+        final List<ServiceResponse> cachedServices = cache.get(RegistryCache.SERVICES, ServiceResponse.class);
+        registry.addRegisteredDevices(cachedDevices);
+        for (ServiceResponse serviceResponse : cachedServices) {
+            // Information about cached services is requested when the fresh service list has been retrieved
+            registry.addService(new Service(serviceResponse));
+        }
+
+        bootstrapExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, DeviceResponse> devices = new LinkedHashMap<String, DeviceResponse>();
+                try {
+                    new ChunkedFetcher<DeviceResponse>(bootstrapExecutor, CHUNK_SIZE, CHUNK_PARALLELISM).fetchAll(new ChunkedFetcher.ChunkSource<DeviceResponse>() {
+                        @Override
+                        public ChunkedResponse<DeviceResponse> fetch(int offset, int count) throws ServiceException, ServiceTimeoutException {
+                            ChunkedRequest request = new ChunkedRequest();
+                            request.setOffset(offset);
+                            request.setCount(count);
+                            long requestTime = System.nanoTime();
+                            try {
+                                ChunkedResponse<DeviceResponse> response = CoreServiceFactory.getCoreService(deviceAccessToken).findDevices(request);
+                                metrics.recordResponse("CoreService.findDevices", null, requestTime);
+                                return response;
+                            } catch (ServiceTimeoutException e) {
+                                metrics.recordTimeout("CoreService.findDevices", null);
+                                throw e;
+                            } catch (ServiceException e) {
+                                metrics.recordError("CoreService.findDevices", null);
+                                throw e;
+                            }
+                        }
+                    }, new ChunkedFetcher.ChunkHandler<DeviceResponse>() {
+                        @Override
+                        public void onChunk(List<DeviceResponse> items) {
+                            for (DeviceResponse item : items) {
+                                devices.put(item.getId(), item);
+                            }
+                            onRegisteredDevices(items);
+                        }
+                    });
+                } catch (ServiceException e) {
+                    System.err.println("Unable to retrieve registered devices");
+                    return;
+                } catch (ServiceTimeoutException e) {
+                    System.err.println("Timeout when retrieving registered devices");
+                    return;
+                } catch (InterruptedException e) {
+                    // Shutting down
+                    return;
+                }
+                // Remove cached devices which no longer are registered
+                for (DeviceResponse cachedDevice : cachedDevices) {
+                    if (!devices.containsKey(cachedDevice.getId())) {
+                        registry.removeRegisteredDevice(cachedDevice.getId());
+                    }
+                }
+                cache.update(RegistryCache.DEVICES, devices);
+            }
+        });
+        bootstrapExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, ServiceResponse> services = new LinkedHashMap<String, ServiceResponse>();
+                try {
+                    new ChunkedFetcher<ServiceResponse>(bootstrapExecutor, CHUNK_SIZE, CHUNK_PARALLELISM).fetchAll(new ChunkedFetcher.ChunkSource<ServiceResponse>() {
+                        @Override
+                        public ChunkedResponse<ServiceResponse> fetch(int offset, int count) throws ServiceException, ServiceTimeoutException {
+                            FindServicesRequest request = new FindServicesRequest("content");
+                            request.setOffset(offset);
+                            request.setCount(count);
+                            long requestTime = System.nanoTime();
+                            try {
+                                ChunkedResponse<ServiceResponse> response = CoreServiceFactory.getCoreService(deviceAccessToken).findServices(request);
+                                metrics.recordResponse("CoreService.findServices", null, requestTime);
+                                return response;
+                            } catch (ServiceTimeoutException e) {
+                                metrics.recordTimeout("CoreService.findServices", null);
+                                throw e;
+                            } catch (ServiceException e) {
+                                metrics.recordError("CoreService.findServices", null);
+                                throw e;
+                            }
+                        }
+                    }, new ChunkedFetcher.ChunkHandler<ServiceResponse>() {
+                        @Override
+                        public void onChunk(List<ServiceResponse> items) {
+                            for (ServiceResponse item : items) {
+                                services.put(item.getId(), item);
+                            }
+                            onRegisteredServices(items, deviceAccessToken);
+                        }
+                    });
+                } catch (ServiceException e) {
+                    System.err.println("Unable to retrieve registered services");
+                    return;
+                } catch (ServiceTimeoutException e) {
+                    System.err.println("Timeout when retrieving registered services");
+                    return;
+                } catch (InterruptedException e) {
+                    // Shutting down
+                    return;
+                }
+                // Remove cached online services which no longer are available
+                for (ServiceResponse cachedService : cachedServices) {
+                    Service service = registry.getService(cachedService.getId());
+                    if (!services.containsKey(cachedService.getId()) && service != null && service.isOnlineService()) {
+                        registry.removeService(cachedService.getId());
+                    }
+                }
+                cache.update(RegistryCache.SERVICES, services);
+            }
+        });
+    }
+
+    /**
+     * Store the devices registered in the Cloud Core service and update any players which already have been
+     * discovered on the local network
+     *
+     * @param devices The devices registered in Cloud Core service
+     */
+    private void onRegisteredDevices(List<DeviceResponse> devices) {
+        registry.addRegisteredDevices(devices);
+    }
+
+    /**
+     * Add the online services available in the Cloud Core service and request more information about them
+     *
+     * @param services          The services available in the Cloud Core service
+     * @param deviceAccessToken The device access token to use when accessing the services
+     */
+    private void onRegisteredServices(List<ServiceResponse> services, String deviceAccessToken) {
+        for (ServiceResponse serviceResponse : services) {
+            final Service service = new Service(serviceResponse);
+            registry.addService(service);
+
+            // Request additional information about the service
+            // This is mainly here to show the concept, it doesn't really return any more information than
+            // what we already have except for some image urls
+            getMoreInformationAboutOnlineService(service, serviceResponse.getUrl(), deviceAccessToken);
+        }
+    }
+
+
+    /**
+     * Players and services currently known by the controller
+     *
+     * @return The registry
+     */
+    public DeviceRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Create a channel which sends Player Protocol commands to a player without waiting for previous commands
+     * to be answered, the controller must have been started
+     *
+     * @param deviceId The identity of the player
+     * @return The channel
+     */
+    public PlayerCommandChannel createCommandChannel(String deviceId) {
+        return new PlayerCommandChannel(deviceId, ickP2p, correlationTable);
+    }
+
+    /**
+     * Shutdown everything, only the first call has any effect
+     */
+    public void shutdown() {
+        if (!shutdown.compareAndSet(false, true)) {
+            return;
+        }
         // Stop console screen
-        screen.stopScreen();
+        if (renderScheduler != null) {
+            renderScheduler.shutdown();
+            renderScheduler = null;
+        }
+        if (screen != null) {
+            screen.stopScreen();
+            screen = null;
+        }
+
+        // Abort any startup requests which are still running
+        bootstrapExecutor.shutdownNow();
+        eventLoop.shutdown();
+        correlationTable.shutdown();
+        requestScheduler.shutdown();
+        if (startupDuration != null) {
+            console.println("Startup time until first render: " + startupDuration + " ms");
+        }
+        console.println("Responses: " + correlationTable.getMatchedCount() + " matched, " +
+                correlationTable.getOrphanedCount() + " orphaned, " +
+                correlationTable.getExpiredCount() + " requests expired without response");
+        console.println("Events: " + eventLoop.getBlockedCount() + " times blocked by a full queue");
+        for (EventLoop.EventStatistics statistics : eventLoop.getStatistics()) {
+            console.println("- " + statistics);
+        }
+        metrics.shutdown(metricsEnabled ? METRICS_SNAPSHOT_FILE : null);
 
         // Stop ickStream P2P if it has been started
         if (ickP2p != null) {
-            System.out.println("Shutting down...");
+            if (ickP2p instanceof SyntheticIckP2p) {
+                console.println(ickP2p);
+            }
+            console.println("Shutting down...");
             try {
                 ickP2p.end();
-                System.out.println("ickP2p successfully shutdown");
+                console.println("ickP2p successfully shutdown");
             } catch (IckP2pException e) {
                 System.err.println("Failed to properly shutdown ickP2p");
             }
@@ -350,131 +882,160 @@ public class SampleController extends DiscoveryAdapter implements MessageListene
 
 
     /**
-     * Print information about discovered devices and services on the console screen
+     * Request the information about discovered devices and services to be printed on the console screen, the
+     * screen is refreshed asynchronously so this never blocks
      */
     public void printDevicesAndServices() {
-        synchronized (syncObject) {
-            screen.clear();
-            int row = 0;
-            screen.putString(0, row++, "=== Devices and services available ===", null, null);
-            screen.putString(0, row++, "User: " + user.getName(), null, null);
-
-            List<Device> sortedPlayers = new ArrayList<Device>(availablePlayers.values());
-            Collections.sort(sortedPlayers, new Comparator<Device>() {
-                @Override
-                public int compare(Device d1, Device d2) {
-                    return d1.getName().compareTo(d2.getName());
-                }
-            });
-
-            if (sortedPlayers.size() > 0) {
-                row++;
-                screen.putString(0, row++, "Discovered players: ", null, null);
-                for (Device player : sortedPlayers) {
-                    Terminal.Color color = Terminal.Color.YELLOW;
-                    if (player.getPlayerConfiguration() != null) {
-                        color = Terminal.Color.GREEN;
-                    }
-                    screen.putString(0, row++, "- " + player.getName() + " (" + player.getId() + ")" + (player.getRegisteredInformation() == null ? " (Unregistered)" : ""), color, null);
+        RenderScheduler scheduler = renderScheduler;
+        if (scheduler != null) {
+            scheduler.markDirty();
+        }
+    }
+
+    /**
+     * Build the rows with information about discovered devices and services, called by the {@link RenderScheduler}
+     *
+     * @return The rows to show on the console screen
+     */
+    private List<RenderScheduler.Row> buildDevicesAndServicesFrame() {
+        if (startupDuration == null) {
+            startupDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        }
+        List<RenderScheduler.Row> rows = new ArrayList<RenderScheduler.Row>();
+        rows.add(new RenderScheduler.Row("=== Devices and services available ==="));
+        rows.add(new RenderScheduler.Row("User: " + (user != null ? user.getName() : "(offline)")));
+        rows.add(new RenderScheduler.Row("Startup time: " + startupDuration + " ms"));
+        rows.add(new RenderScheduler.Row("Information requests: " + requestScheduler.getQueueDepth() + " queued, " +
+                requestScheduler.getInFlight() + " in progress, " +
+                requestScheduler.getRetryCount() + " retries, " +
+                requestScheduler.getAbandonedCount() + " failed, " +
+                requestScheduler.getAverageLatencyMillis() + " ms average latency"));
+        rows.add(new RenderScheduler.Row("Events: " + eventLoop.getQueueDepth() + " queued, " +
+                eventLoop.getBlockedCount() + " times blocked by a full queue"));
+
+        SortedIndex<Device> sortedPlayers = registry.getSortedPlayers();
+        if (!sortedPlayers.isEmpty()) {
+            rows.add(new RenderScheduler.Row(""));
+            rows.add(new RenderScheduler.Row("Discovered players: "));
+            for (Device player : sortedPlayers.window(0, MAX_LISTED_DEVICES)) {
+                Terminal.Color color = Terminal.Color.YELLOW;
+                if (player.getPlayerConfiguration() != null) {
+                    color = Terminal.Color.GREEN;
                 }
+                rows.add(new RenderScheduler.Row("- " + player.getName() + " (" + player.getId() + ")" + (player.getRegisteredInformation() == null ? " (Unregistered)" : ""), color));
             }
+            addHiddenRow(rows, sortedPlayers);
+        }
 
-            List<Service> sortedServices = new ArrayList<Service>(availableServices.values());
-            Collections.sort(sortedServices, new Comparator<Service>() {
-                @Override
-                public int compare(Service s1, Service s2) {
-                    return s1.getName().compareTo(s2.getName());
-                }
-            });
-
-            if (sortedServices.size() > 0) {
-                row++;
-                screen.putString(0, row++, "Discovered services: ", null, null);
-                for (Service service : sortedServices) {
-                    Terminal.Color color = Terminal.Color.YELLOW;
-                    if (service.getServiceInformation() != null) {
-                        color = Terminal.Color.GREEN;
-                    }
-                    screen.putString(0, row++, "- " + (service.isOnlineService() ? "Online: " : "Local:  ") + service.getName() + " (" + service.getId() + ")", color, null);
+        SortedIndex<Service> sortedServices = registry.getSortedServices();
+        if (!sortedServices.isEmpty()) {
+            rows.add(new RenderScheduler.Row(""));
+            rows.add(new RenderScheduler.Row("Discovered services: "));
+            for (Service service : sortedServices.window(0, MAX_LISTED_DEVICES)) {
+                Terminal.Color color = Terminal.Color.YELLOW;
+                if (service.getServiceInformation() != null) {
+                    color = Terminal.Color.GREEN;
                 }
+                rows.add(new RenderScheduler.Row("- " + (service.isOnlineService() ? "Online: " : "Local:  ") + service.getName() + " (" + service.getId() + ")", color));
             }
-            row++;
-            screen.putString(0, row++, "Click Ctrl+C to exit", null, null);
-            screen.completeRefresh();
-            screen.setCursorPosition(0, ++row);
+            addHiddenRow(rows, sortedServices);
+        }
+        rows.add(new RenderScheduler.Row(""));
+        rows.add(new RenderScheduler.Row("Click Ctrl+C to exit"));
+        return rows;
+    }
+
+    /**
+     * Adds a summary row for the entries of a list which didn't fit on the screen
+     *
+     * @param rows  The rows of the frame
+     * @param index The list which was rendered
+     */
+    private void addHiddenRow(List<RenderScheduler.Row> rows, SortedIndex<?> index) {
+        int hidden = index.size() - MAX_LISTED_DEVICES;
+        if (hidden > 0) {
+            rows.add(new RenderScheduler.Row("  ... and " + hidden + " more"));
         }
     }
 
 
     /**
-     * When a new device is discovered and connected, we detect if it's a service or player and add
-     * it to the appropriate list
+     * When a new device is discovered and connected, we queue it for processing on the event loop
      *
      * @param event The discovery information related to the discovered device
      */
     @Override
-    public void onConnectedDevice(DiscoveryEvent event) {
+    public void onConnectedDevice(final DiscoveryEvent event) {
+        eventLoop.post("connected", new Runnable() {
+            @Override
+            public void run() {
+                handleConnectedDevice(event);
+            }
+        });
+    }
+
+    /**
+     * Detect if a connected device is a service or player and add it to the appropriate list
+     *
+     * @param event The discovery information related to the discovered device
+     */
+    private void handleConnectedDevice(DiscoveryEvent event) {
+        metrics.deviceDiscovered(event.getDeviceId());
+
         // If discovered device is a service
         if (event.getServices().isType(ServiceType.SERVICE)) {
             final Service service = new Service(event.getDeviceId(), event.getDeviceName());
-
-            synchronized (syncObject) {
-                availableServices.put(event.getDeviceId(), service);
-            }
+            registry.addService(service);
 
             // Request additional information about the service
             getMoreInformationAboutLocalService(service);
         } else {
             // Remove the device from the service list in case it previously reported to offer a service
-            synchronized (syncObject) {
-                availableServices.remove(event.getDeviceId());
-            }
+            registry.removeService(event.getDeviceId());
         }
 
         // If discovered device is a player
         if (event.getServices().isType(ServiceType.PLAYER)) {
-            // Lookup the device among devices registered in the Cloud Code service so we can
-            // indicate if it's registered or not
-            DeviceResponse registeredDevice = registeredDevices.get(event.getDeviceId());
-            if (registeredDevice != null) {
-                Device player = new Device(event.getDeviceId(), registeredDevice);
-                synchronized (syncObject) {
-                    availablePlayers.put(event.getDeviceId(), player);
-                }
-                // Request additional information about the player
-                getMoreInformationAboutPlayer(player);
-            } else {
-                Device player = new Device(event.getDeviceId(), event.getDeviceName());
-                synchronized (syncObject) {
-                    availablePlayers.put(event.getDeviceId(), player);
-                }
-                // Request additional information about the player
-                getMoreInformationAboutPlayer(player);
-            }
+            // The registry looks up the device among devices registered in the Cloud Code service so we can
+            // indicate if it's registered or not, a device discovered while the registered devices are
+            // retrieved is updated when they arrive
+            Device player = registry.addPlayer(event.getDeviceId(), event.getDeviceName());
+
+            // Request additional information about the player
+            getMoreInformationAboutPlayer(player);
         } else {
             // Remove the device from the player list in case it previously reported to offer a player service
-            availablePlayers.remove(event.getDeviceId());
+            registry.removePlayer(event.getDeviceId());
         }
-
-        // Refresh the console user interface
-        printDevicesAndServices();
     }
 
 
     /**
-     * When a device is removed, we remove it from the lists
+     * When a device is removed, we queue it for processing on the event loop
      *
      * @param deviceId The identity for the removed device
      */
     @Override
-    public void onDisconnectedDevice(String deviceId) {
-        // Ensure thread safety as this callback can come from multiple parallel threads
-        synchronized (syncObject) {
-            availablePlayers.remove(deviceId);
-            availableServices.remove(deviceId);
-        }
-        // Refresh the console user interface
-        printDevicesAndServices();
+    public void onDisconnectedDevice(final String deviceId) {
+        eventLoop.post("disconnected", new Runnable() {
+            @Override
+            public void run() {
+                handleDisconnectedDevice(deviceId);
+            }
+        });
+    }
+
+    /**
+     * Remove a disconnected device from the lists
+     *
+     * @param deviceId The identity for the removed device
+     */
+    private void handleDisconnectedDevice(String deviceId) {
+        // The registry is still thread safe as it's also updated from the Cloud Core requests
+        registry.removeDevice(deviceId);
+        metrics.deviceDisconnected(deviceId);
+        correlationTable.removeDevice(deviceId);
+        requestScheduler.cancel(deviceId);
     }
 
     /**
@@ -485,29 +1046,55 @@ public class SampleController extends DiscoveryAdapter implements MessageListene
     public void getMoreInformationAboutPlayer(final Device player) {
         // Make an asynchronous call to get more information about the service
         // This call is mainly here to show the concept
-        PlayerService playerService = new PlayerService(ServiceType.CONTROLLER, ickP2p, player.getId());
+        CorrelatingIckP2p clientIckP2p = new CorrelatingIckP2p(ickP2p, correlationTable);
+        PlayerService playerService = new PlayerService(ServiceType.CONTROLLER, clientIckP2p, player.getId());
+        clientIckP2p.setResponseHandler(playerService);
         player.setPlayerService(playerService);
 
-        playerService.getPlayerConfiguration(new MessageHandlerAdapter<PlayerConfigurationResponse>() {
+        // The request is queued, so we don't flood the network when many players appear at the same time
+        requestScheduler.submit("player:" + player.getId(), player.getId(), new RequestScheduler.Request() {
             @Override
-            public void onMessage(PlayerConfigurationResponse playerConfiguration) {
-                synchronized (syncObject) {
-                    player.setPlayerConfiguration(playerConfiguration);
+            public void execute(final RequestScheduler.Completion completion) {
+                // The player might have been rediscovered with a new client while the request was queued
+                Device currentPlayer = registry.getPlayer(player.getId());
+                if (currentPlayer == null || currentPlayer.getPlayerService() == null) {
+                    completion.succeeded();
+                    return;
                 }
-                printDevicesAndServices();
-            }
+                final long requestTime = System.nanoTime();
+                currentPlayer.getPlayerService().getPlayerConfiguration(new MessageHandlerAdapter<PlayerConfigurationResponse>() {
+                    @Override
+                    public void onMessage(final PlayerConfigurationResponse playerConfiguration) {
+                        metrics.recordResponse("PlayerService.getPlayerConfiguration", player.getId(), requestTime);
+                        metrics.deviceConfigured(player.getId());
+                        registry.updatePlayer(player.getId(), new DeviceRegistry.Update<Device>() {
+                            @Override
+                            public void apply(Device item) {
+                                item.setPlayerConfiguration(playerConfiguration);
+                            }
+                        });
+                        completion.succeeded();
+                    }
 
-            @Override
-            public void onError(int code, String message, String data) {
-                System.err.println("Error when retrieving information about: " + player.getName() + " (" + player.getId() + ")");
-                System.err.println(code + ": " + message + (data != null ? " : " + data : ""));
+                    @Override
+                    public void onError(int code, String message, String data) {
+                        metrics.recordError("PlayerService.getPlayerConfiguration", player.getId());
+                        completion.failed(code + ": " + message + (data != null ? " : " + data : ""));
+                    }
+
+                    @Override
+                    public void onTimeout() {
+                        metrics.recordTimeout("PlayerService.getPlayerConfiguration", player.getId());
+                        completion.failed("Timeout");
+                    }
+                });
             }
 
             @Override
-            public void onTimeout() {
-                System.err.println("Timeout when retrieving information about: " + player.getName() + " (" + player.getId() + ")");
+            public void abandon(String reason) {
+                System.err.println("Error when retrieving information about: " + player.getName() + " (" + player.getId() + ")");
+                System.err.println(reason);
             }
-
         });
     }
 
@@ -535,7 +1122,9 @@ public class SampleController extends DiscoveryAdapter implements MessageListene
     public void getMoreInformationAboutLocalService(final Service service) {
         // Make an asynchronous call to get more information about the service
         // This call is mainly here to show the concept
-        DeviceContentService serviceClient = new DeviceContentService(ServiceType.CONTROLLER, service.getId(), ickP2p);
+        CorrelatingIckP2p clientIckP2p = new CorrelatingIckP2p(ickP2p, correlationTable);
+        DeviceContentService serviceClient = new DeviceContentService(ServiceType.CONTROLLER, service.getId(), clientIckP2p);
+        clientIckP2p.setResponseHandler(serviceClient);
         service.setContentService(serviceClient);
         getMoreInformationAboutService(service);
     }
@@ -547,68 +1136,118 @@ public class SampleController extends DiscoveryAdapter implements MessageListene
      * @param service The service to request more information about
      */
     public void getMoreInformationAboutService(final Service service) {
-        service.getContentService().getServiceInformation(new MessageHandlerAdapter<ServiceInformation>() {
+        // Online services aren't devices on the local network
+        final String deviceId = service.isOnlineService() ? null : service.getId();
+        // The request is queued, so we don't flood the network when many services appear at the same time
+        requestScheduler.submit("service:" + service.getId(), service.getId(), new RequestScheduler.Request() {
             @Override
-            public void onMessage(ServiceInformation serviceInformation) {
-                synchronized (syncObject) {
-                    service.setServiceInformation(serviceInformation);
-                }
-                printDevicesAndServices();
+            public void execute(final RequestScheduler.Completion completion) {
+                final long requestTime = System.nanoTime();
+                service.getContentService().getServiceInformation(new MessageHandlerAdapter<ServiceInformation>() {
+                    @Override
+                    public void onMessage(final ServiceInformation serviceInformation) {
+                        metrics.recordResponse("ContentService.getServiceInformation", deviceId, requestTime);
+                        metrics.deviceConfigured(service.getId());
+                        registry.updateService(service.getId(), new DeviceRegistry.Update<Service>() {
+                            @Override
+                            public void apply(Service item) {
+                                item.setServiceInformation(serviceInformation);
+                            }
+                        });
+                        completion.succeeded();
+                    }
+
+                    @Override
+                    public void onError(int code, String message, String data) {
+                        metrics.recordError("ContentService.getServiceInformation", deviceId);
+                        completion.failed(code + ": " + message + (data != null ? " : " + data : ""));
+                    }
+
+                    @Override
+                    public void onTimeout() {
+                        metrics.recordTimeout("ContentService.getServiceInformation", deviceId);
+                        completion.failed("Timeout");
+                    }
+                });
             }
 
             @Override
-            public void onError(int code, String message, String data) {
+            public void abandon(String reason) {
                 System.err.println("Error when retrieving information about: " + service.getName() + " (" + service.getId() + ")");
-                System.err.println(code + ": " + message + (data != null ? " : " + data : ""));
+                System.err.println(reason);
             }
+        });
+    }
 
+    /**
+     * When a message is received from another device we queue it for processing on the event loop
+     *
+     * @param sourceDeviceId    The device which sent the message
+     * @param targetDeviceId    The device which the message was sent to (this will always be us)
+     * @param targetServiceType The type of service the message was sent to
+     * @param message           The message
+     */
+    @Override
+    public void onMessage(final String sourceDeviceId, ServiceType sourceServiceType, String targetDeviceId, final ServiceType targetServiceType, final byte[] message) {
+        eventLoop.post("message", new Runnable() {
             @Override
-            public void onTimeout() {
-                System.err.println("Timeout when retrieving information about: " + service.getName() + " (" + service.getId() + ")");
+            public void run() {
+                handleMessage(sourceDeviceId, targetServiceType, message);
             }
-
         });
     }
 
     /**
-     * When a message is received from another device we need to lookup the {@link com.ickstream.protocol.service.content.ContentService} or
-     * {@link PlayerService} client instance which is handling it and forward the incoming message to it
+     * Lookup the {@link com.ickstream.protocol.service.content.ContentService} or
+     * {@link PlayerService} client instance which is handling a received message and forward the message to it.
+     * Responses to requests sent through a {@link CorrelatingIckP2p} are looked up directly in the
+     * {@link ResponseCorrelationTable}
      *
      * @param sourceDeviceId    The device which sent the message
-     * @param targetDeviceId    The device which the message was sent to (this will always be us)
      * @param targetServiceType The type of service the message was sent to
      * @param message           The message
      */
-    @Override
-    public void onMessage(String sourceDeviceId, ServiceType sourceServiceType, String targetDeviceId, ServiceType targetServiceType, byte[] message) {
-        Device player = null;
-        Service service = null;
+    private void handleMessage(String sourceDeviceId, ServiceType targetServiceType, byte[] message) {
+        // Only look at the routing information first, the full message is only parsed if someone will handle it
+        MessageDecoder.Header header = messageDecoder.peek(message);
+        if (header.getType() == MessageDecoder.Type.RESPONSE) {
+            // Hand the response directly to the client which sent the request
+            JsonRpcResponseHandler handler = correlationTable.take(sourceDeviceId, header.getId());
+            if (handler != null) {
+                JsonRpcResponse response = messageDecoder.decodeResponse(message);
+                if (response != null) {
+                    handler.onResponse(response);
+                }
+                return;
+            }
+        } else if (header.getType() != MessageDecoder.Type.NOTIFICATION) {
+            // Invalid messages and requests can't be handled by a controller
+            return;
+        }
 
-        // If the message is for us, lookup and player or server with the expected device identity
+        // Unknown response or notification, offer it to the clients related to the source device
         if (targetServiceType.isType(ServiceType.CONTROLLER)) {
-            synchronized (syncObject) {
-                player = availablePlayers.get(sourceDeviceId);
-                service = availableServices.get(sourceDeviceId);
+            Device player = registry.getPlayer(sourceDeviceId);
+            Service service = registry.getService(sourceDeviceId);
+            if ((player == null || player.getPlayerService() == null) && (service == null || service.getContentService() == null)) {
+                return;
             }
-        }
-        try {
+
             // Convert the message to a JSON-RPC response
-            JsonRpcResponse response = new JsonHelper().stringToObject(new String(message, "UTF-8"), JsonRpcResponse.class);
+            JsonRpcResponse response = messageDecoder.decodeResponse(message);
             if (response != null) {
                 boolean handled = false;
 
                 // Try to forward the message to the player if we had a matching player
-                if (player != null) {
+                if (player != null && player.getPlayerService() != null) {
                     handled = player.getPlayerService().onResponse(response);
                 }
 
                 // If the player didn't exist or didn't handle it, forward the message to the matching service instead
-                if (service != null && !handled) {
+                if (service != null && service.getContentService() != null && !handled) {
                     service.getContentService().onResponse(response);
                 }
             }
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
         }
     }
 }
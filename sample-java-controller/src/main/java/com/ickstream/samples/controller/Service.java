@@ -34,32 +34,34 @@ import com.ickstream.protocol.service.core.ServiceResponse;
 
 /**
  * Representation of a service, either local or online
+ * <p/>
+ * Instances are shared between threads through the {@link DeviceRegistry}, so all fields are volatile
  */
 public class Service {
     /**
      * Identity of the service
      */
-    private String id;
+    private volatile String id;
 
     /**
      * Name of the service, this might be null for local services
      */
-    private String name;
+    private volatile String name;
 
     /**
      * More information about the service in case it's an online service
      */
-    private ServiceResponse onlineService;
+    private volatile ServiceResponse onlineService;
 
     /**
      * More information about the service
      */
-    private ServiceInformation serviceInformation;
+    private volatile ServiceInformation serviceInformation;
 
     /**
      * Content Access service client
      */
-    private ContentService contentService;
+    private volatile ContentService contentService;
 
 
     public Service(String id, String name) {
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ickstream.common.ickp2p.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process ickStream P2P implementation which simulates a network with a large number of players and services
+ * according to a {@link SyntheticScenario}, used to load test the controller without any network or real devices.
+ * <p/>
+ * Devices are connected at a configurable rate and then randomly disconnected and reconnected. The simulated
+ * devices answer getPlayerConfiguration and getServiceInformation requests themselves after a random delay,
+ * a configurable share of the requests are answered with an error or not answered at all.
+ * <p/>
+ * Callbacks are made from a pool of threads, just like the native implementation does.
+ */
+public class SyntheticIckP2p implements IckP2p {
+    /**
+     * Time between each generation of discovery events in milliseconds
+     */
+    private static final long TICK_INTERVAL = 10;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * A simulated device
+     */
+    private static class SyntheticDevice {
+        private final String id;
+        private final String name;
+        private final ServiceType type;
+        private volatile boolean connected = false;
+
+        private SyntheticDevice(String id, String name, ServiceType type) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    private final SyntheticScenario scenario;
+    private final Random random;
+    private final List<SyntheticDevice> devices = new ArrayList<SyntheticDevice>();
+    private final Map<String, SyntheticDevice> devicesById = new ConcurrentHashMap<String, SyntheticDevice>();
+    private final List<DiscoveryListener> discoveryListeners = new CopyOnWriteArrayList<DiscoveryListener>();
+    private final List<MessageListener> messageListeners = new CopyOnWriteArrayList<MessageListener>();
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private String deviceId;
+    private ServiceType services;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> generator;
+
+    /**
+     * Only accessed from the generator task
+     */
+    private int nextToConnect = 0;
+    private double connectBudget = 0;
+    private double flapBudget = 0;
+
+    public SyntheticIckP2p(SyntheticScenario scenario) {
+        this.scenario = scenario;
+        this.random = new Random(scenario.getSeed());
+        for (int i = 0; i < scenario.getPlayers(); i++) {
+            addDevice(String.format("SYNTHETIC-PLAYER-%06d", i), "Synthetic Player " + (i + 1), ServiceType.PLAYER);
+        }
+        for (int i = 0; i < scenario.getServices(); i++) {
+            addDevice(String.format("SYNTHETIC-SERVICE-%06d", i), "Synthetic Service " + (i + 1), ServiceType.SERVICE);
+        }
+        // Connect players and services interleaved
+        Collections.shuffle(devices, random);
+    }
+
+    private void addDevice(String id, String name, ServiceType type) {
+        SyntheticDevice device = new SyntheticDevice(id, name, type);
+        devices.add(device);
+        devicesById.put(id, device);
+    }
+
+    @Override
+    public synchronized void create(String deviceName, String deviceId, String dataFolder, Integer lifetime, Integer port, ServiceType services) throws IckP2pException {
+        if (executor != null) {
+            throw new IckP2pException(-1, "Already created");
+        }
+        this.deviceId = deviceId;
+        this.services = services;
+        this.executor = Executors.newScheduledThreadPool(4, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "synthetic-p2p-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public synchronized void end() throws IckP2pException {
+        suspend();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public synchronized void resume() throws IckP2pException {
+        if (executor == null) {
+            throw new IckP2pException(-1, "Not created");
+        }
+        if (generator == null) {
+            generator = executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    generateDiscoveryEvents();
+                }
+            }, 0, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void suspend() throws IckP2pException {
+        if (generator != null) {
+            generator.cancel(false);
+            generator = null;
+        }
+    }
+
+    @Override
+    public void addInterface(String networkInterface, String hostname) throws IckP2pException {
+        // There is no network
+    }
+
+    /**
+     * Connect new devices until all are connected, then disconnect random devices
+     */
+    private void generateDiscoveryEvents() {
+        connectBudget += scenario.getConnectRate() * TICK_INTERVAL / 1000;
+        while (connectBudget >= 1 && nextToConnect < devices.size()) {
+            connect(devices.get(nextToConnect++));
+            connectBudget--;
+        }
+        if (nextToConnect < devices.size() || devices.isEmpty()) {
+            return;
+        }
+        connectBudget = 0;
+
+        flapBudget += scenario.getFlapRate() * TICK_INTERVAL / 1000;
+        while (flapBudget >= 1) {
+            flapBudget--;
+            final SyntheticDevice device = devices.get(random.nextInt(devices.size()));
+            if (device.connected) {
+                disconnect(device);
+                schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        connect(device);
+                    }
+                }, scenario.getReconnectDelay());
+            }
+        }
+    }
+
+    private void connect(SyntheticDevice device) {
+        device.connected = true;
+        connects.incrementAndGet();
+        DiscoveryEvent event = new DiscoveryEvent(device.id, device.name, device.type);
+        for (DiscoveryListener listener : discoveryListeners) {
+            listener.onConnectedDevice(event);
+        }
+    }
+
+    private void disconnect(SyntheticDevice device) {
+        device.connected = false;
+        disconnects.incrementAndGet();
+        for (DiscoveryListener listener : discoveryListeners) {
+            listener.onDisconnectedDevice(device.id);
+        }
+    }
+
+    private void schedule(Runnable runnable, long delay) {
+        ScheduledExecutorService currentExecutor;
+        synchronized (this) {
+            currentExecutor = executor;
+        }
+        if (currentExecutor != null) {
+            try {
+                currentExecutor.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+    }
+
+    @Override
+    public void sendMsg(String targetDeviceId, ServiceType targetServiceType, ServiceType sourceServiceType, byte[] message) throws IckP2pException {
+        final SyntheticDevice device = devicesById.get(targetDeviceId);
+        if (device == null || !device.connected) {
+            throw new IckP2pException(-1, "Device not connected: " + targetDeviceId);
+        }
+        JsonNode request;
+        try {
+            request = MAPPER.readTree(message);
+        } catch (IOException e) {
+            throw new IckP2pException(-1, "Invalid message: " + e.getMessage());
+        }
+        if (request == null || request.get("id") == null || request.get("method") == null) {
+            // Notifications and responses don't need any answer
+            return;
+        }
+        requests.incrementAndGet();
+
+        double outcome;
+        long delay;
+        synchronized (random) {
+            outcome = random.nextDouble();
+            delay = scenario.getResponseDelayMin() + (long) (random.nextDouble() * (scenario.getResponseDelayMax() - scenario.getResponseDelayMin()));
+        }
+        if (outcome < scenario.getDropRate()) {
+            dropped.incrementAndGet();
+            return;
+        }
+        final ObjectNode response = MAPPER.createObjectNode();
+        response.put("jsonrpc", "2.0");
+        response.put("id", request.get("id"));
+        String method = request.get("method").asText();
+        if (outcome < scenario.getDropRate() + scenario.getErrorRate()) {
+            errors.incrementAndGet();
+            ObjectNode error = response.putObject("error");
+            error.put("code", -32603);
+            error.put("message", "Synthetic error");
+        } else if (method.equals("getPlayerConfiguration") && device.type == ServiceType.PLAYER) {
+            ObjectNode result = response.putObject("result");
+            result.put("playerName", device.name);
+            result.put("playerModel", "Synthetic");
+            result.put("hardwareId", device.id);
+        } else if (method.equals("getServiceInformation") && device.type == ServiceType.SERVICE) {
+            ObjectNode result = response.putObject("result");
+            result.put("id", device.id);
+            result.put("name", device.name);
+            result.put("type", "content");
+        } else {
+            errors.incrementAndGet();
+            ObjectNode error = response.putObject("error");
+            error.put("code", -32601);
+            error.put("message", "Method not found: " + method);
+        }
+        final ServiceType responseTargetServiceType = sourceServiceType != null ? sourceServiceType : services;
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                // The device might have disappeared while processing the request
+                if (!device.connected) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                byte[] bytes;
+                try {
+                    bytes = MAPPER.writeValueAsBytes(response);
+                } catch (IOException e) {
+                    // Only contains simple values
+                    throw new RuntimeException(e);
+                }
+                responses.incrementAndGet();
+                for (MessageListener listener : messageListeners) {
+                    listener.onMessage(device.id, device.type, deviceId, responseTargetServiceType, bytes);
+                }
+            }
+        }, delay);
+    }
+
+    @Override
+    public void sendMsg(String targetDeviceId, ServiceType targetServiceType, byte[] message) throws IckP2pException {
+        sendMsg(targetDeviceId, targetServiceType, null, message);
+    }
+
+    @Override
+    public void sendMsg(ServiceType targetServiceType, byte[] message) throws IckP2pException {
+        // Broadcasts are not answered by the simulated devices
+    }
+
+    @Override
+    public void addDiscoveryListener(DiscoveryListener listener) {
+        discoveryListeners.add(listener);
+    }
+
+    @Override
+    public void removeDiscoveryListener(DiscoveryListener listener) {
+        discoveryListeners.remove(listener);
+    }
+
+    @Override
+    public void addMessageListener(MessageListener listener) {
+        messageListeners.add(listener);
+    }
+
+    @Override
+    public void removeMessageListener(MessageListener listener) {
+        messageListeners.remove(listener);
+    }
+
+    @Override
+    public String toString() {
+        return "Synthetic network: " + connects.get() + " connects, " + disconnects.get() + " disconnects, " +
+                requests.get() + " requests, " + responses.get() + " responses, " +
+                errors.get() + " errors, " + dropped.get() + " dropped";
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Scenario for {@link SyntheticIckP2p}, describing how many devices to simulate and how they behave.
+ * <p/>
+ * A scenario is read from a properties file, all properties are optional:
+ * <pre>
+ * players=1000                # Number of simulated players
+ * services=100                # Number of simulated local services
+ * connectRate=200             # Devices connected per second until all devices are connected
+ * flapRate=10                 # Devices disconnected per second once all devices are connected
+ * reconnectDelay=2000         # Milliseconds before a disconnected device connects again
+ * responseDelayMin=5          # Minimum response time of a device in milliseconds
+ * responseDelayMax=50         # Maximum response time of a device in milliseconds
+ * errorRate=0.01              # Share of requests answered with an error
+ * dropRate=0.01               # Share of requests never answered
+ * seed=1                      # Seed of the random generator so runs can be repeated
+ * </pre>
+ */
+public class SyntheticScenario {
+    private final int players;
+    private final int services;
+    private final double connectRate;
+    private final double flapRate;
+    private final long reconnectDelay;
+    private final long responseDelayMin;
+    private final long responseDelayMax;
+    private final double errorRate;
+    private final double dropRate;
+    private final long seed;
+
+    /**
+     * Create a scenario from properties, see the class documentation for available properties
+     *
+     * @param properties The properties
+     * @throws IllegalArgumentException If a property has an invalid value
+     */
+    public SyntheticScenario(Properties properties) {
+        players = (int) getLong(properties, "players", 1000);
+        services = (int) getLong(properties, "services", 100);
+        connectRate = getDouble(properties, "connectRate", 200);
+        flapRate = getDouble(properties, "flapRate", 10);
+        reconnectDelay = getLong(properties, "reconnectDelay", 2000);
+        responseDelayMin = getLong(properties, "responseDelayMin", 5);
+        responseDelayMax = Math.max(responseDelayMin, getLong(properties, "responseDelayMax", 50));
+        errorRate = getDouble(properties, "errorRate", 0.01);
+        dropRate = getDouble(properties, "dropRate", 0.01);
+        seed = getLong(properties, "seed", System.nanoTime());
+        if (players < 0 || services < 0 || connectRate <= 0 || flapRate < 0 || reconnectDelay < 0 || responseDelayMin < 0) {
+            throw new IllegalArgumentException("Counts, rates and delays in the scenario can't be negative");
+        }
+        if (errorRate < 0 || dropRate < 0 || errorRate + dropRate > 1) {
+            throw new IllegalArgumentException("Error and drop rates must be between 0 and 1");
+        }
+    }
+
+    /**
+     * Read a scenario from a properties file
+     *
+     * @param file The properties file
+     * @return The scenario
+     */
+    public static SyntheticScenario load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return new SyntheticScenario(properties);
+    }
+
+    private static long getLong(Properties properties, String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        try {
+            return value != null ? Long.parseLong(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + name + ": " + value);
+        }
+    }
+
+    private static double getDouble(Properties properties, String name, double defaultValue) {
+        String value = properties.getProperty(name);
+        try {
+            return value != null ? Double.parseDouble(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + name + ": " + value);
+        }
+    }
+
+    public int getPlayers() {
+        return players;
+    }
+
+    public int getServices() {
+        return services;
+    }
+
+    public double getConnectRate() {
+        return connectRate;
+    }
+
+    public double getFlapRate() {
+        return flapRate;
+    }
+
+    public long getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    public long getResponseDelayMin() {
+        return responseDelayMin;
+    }
+
+    public long getResponseDelayMax() {
+        return responseDelayMax;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public double getDropRate() {
+        return dropRate;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import com.ickstream.protocol.common.ChunkedResponse;
+import com.ickstream.protocol.common.exception.ServiceException;
+import com.ickstream.protocol.common.exception.ServiceTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ChunkedFetcherTest {
+    private ExecutorService executor;
+
+    /**
+     * Source serving the numbers 0 to size-1, optionally reporting the total number of items
+     */
+    private static class NumberSource implements ChunkedFetcher.ChunkSource<Integer> {
+        private final int size;
+        private final boolean reportCountAll;
+        private final int maxPageSize;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private NumberSource(int size, boolean reportCountAll, int maxPageSize) {
+            this.size = size;
+            this.reportCountAll = reportCountAll;
+            this.maxPageSize = maxPageSize;
+        }
+
+        @Override
+        public ChunkedResponse<Integer> fetch(int offset, int count) throws ServiceException, ServiceTimeoutException {
+            requests.incrementAndGet();
+            List<Integer> items = new ArrayList<Integer>();
+            for (int i = offset; i < size && i < offset + Math.min(count, maxPageSize); i++) {
+                items.add(i);
+            }
+            ChunkedResponse<Integer> response = new ChunkedResponse<Integer>();
+            response.setOffset(offset);
+            response.setCount(items.size());
+            response.setItems(items);
+            if (reportCountAll) {
+                response.setCountAll(size);
+            }
+            return response;
+        }
+    }
+
+    private static class Collector implements ChunkedFetcher.ChunkHandler<Integer> {
+        private final List<Integer> items = new ArrayList<Integer>();
+
+        @Override
+        public void onChunk(List<Integer> chunk) {
+            items.addAll(chunk);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static void assertSequence(int size, List<Integer> items) {
+        assertEquals(size, items.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(i, items.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testDeliversAllChunksInOrder() throws Exception {
+        NumberSource source = new NumberSource(95, true, Integer.MAX_VALUE);
+        Collector collector = new Collector();
+
+        int total = new ChunkedFetcher<Integer>(executor, 10, 3).fetchAll(source, collector);
+
+        assertEquals(95, total);
+        assertSequence(95, collector.items);
+    }
+
+    @Test
+    public void testCountAllStopsAtExactMultiple() throws Exception {
+        NumberSource source = new NumberSource(20, true, Integer.MAX_VALUE);
+        Collector collector = new Collector();
+
+        int total = new ChunkedFetcher<Integer>(executor, 10, 1).fetchAll(source, collector);
+
+        assertEquals(20, total);
+        assertSequence(20, collector.items);
+        // No request is made for the empty chunk after the last item
+        assertEquals(2, source.requests.get());
+    }
+
+    @Test
+    public void testCountAllContinuesAfterShortChunk() throws Exception {
+        // The service returns less items than requested even though more items are available
+        NumberSource source = new NumberSource(30, true, 7);
+        Collector collector = new Collector();
+
+        int total = new ChunkedFetcher<Integer>(executor, 10, 1).fetchAll(source, collector);
+
+        assertEquals(30, total);
+        assertSequence(30, collector.items);
+        // The following chunks are requested with the page size of the service
+        assertEquals(5, source.requests.get());
+    }
+
+    @Test
+    public void testShortChunksWithParallelRequests() throws Exception {
+        NumberSource source = new NumberSource(95, true, 7);
+        Collector collector = new Collector();
+
+        int total = new ChunkedFetcher<Integer>(executor, 10, 3).fetchAll(source, collector);
+
+        assertEquals(95, total);
+        assertSequence(95, collector.items);
+    }
+
+    @Test
+    public void testWithoutCountAllStopsAtShortChunk() throws Exception {
+        NumberSource source = new NumberSource(25, false, Integer.MAX_VALUE);
+        Collector collector = new Collector();
+
+        int total = new ChunkedFetcher<Integer>(executor, 10, 1).fetchAll(source, collector);
+
+        assertEquals(25, total);
+        assertSequence(25, collector.items);
+        assertEquals(3, source.requests.get());
+    }
+
+    @Test
+    public void testWithoutCountAllStopsAtEmptyChunk() throws Exception {
+        NumberSource source = new NumberSource(20, false, Integer.MAX_VALUE);
+        Collector collector = new Collector();
+
+        int total = new ChunkedFetcher<Integer>(executor, 10, 1).fetchAll(source, collector);
+
+        assertEquals(20, total);
+        assertEquals(3, source.requests.get());
+    }
+
+    @Test
+    public void testEmptyResult() throws Exception {
+        Collector collector = new Collector();
+
+        int total = new ChunkedFetcher<Integer>(executor, 10, 2).fetchAll(new NumberSource(0, true, Integer.MAX_VALUE), collector);
+
+        assertEquals(0, total);
+        assertTrue(collector.items.isEmpty());
+    }
+
+    @Test
+    public void testFailureIsPropagated() throws Exception {
+        ChunkedFetcher.ChunkSource<Integer> source = new ChunkedFetcher.ChunkSource<Integer>() {
+            @Override
+            public ChunkedResponse<Integer> fetch(int offset, int count) throws ServiceException, ServiceTimeoutException {
+                throw new IllegalStateException("failed");
+            }
+        };
+        try {
+            new ChunkedFetcher<Integer>(executor, 10, 2).fetchAll(source, new Collector());
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class ControllerMetricsTest {
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final ControllerMetrics metrics = new ControllerMetrics();
+
+    @After
+    public void tearDown() {
+        metrics.shutdown(null);
+    }
+
+    private boolean isDeviceRegistered(String deviceId) throws Exception {
+        return mBeanServer.isRegistered(new ObjectName("com.ickstream.samples.controller:type=DeviceLatency,name=" + ObjectName.quote(deviceId)));
+    }
+
+    @Test
+    public void testNothingRegisteredUnlessRequested() throws Exception {
+        metrics.recordResponse("PlayerService.getPlayerConfiguration", "device1", System.nanoTime());
+
+        assertFalse(isDeviceRegistered("device1"));
+    }
+
+    @Test
+    public void testDisconnectRemovesDeviceHistogram() throws Exception {
+        metrics.register();
+        metrics.recordResponse("PlayerService.getPlayerConfiguration", "device1", System.nanoTime());
+        metrics.recordError("PlayerService.getPlayerConfiguration", "device2");
+        assertTrue(isDeviceRegistered("device1"));
+        assertTrue(metrics.getSnapshot().contains("device1"));
+
+        metrics.deviceDisconnected("device1");
+
+        assertFalse(isDeviceRegistered("device1"));
+        assertTrue(isDeviceRegistered("device2"));
+        assertFalse(metrics.getSnapshot().contains("device1"));
+        // Method totals are kept
+        assertEquals(1, metrics.getRequestCount());
+        assertEquals(1, metrics.getErrorCount());
+    }
+
+    @Test
+    public void testDiscoveryToConfigured() {
+        metrics.deviceDiscovered("device1");
+        metrics.deviceDiscovered("device2");
+        assertEquals(2, metrics.getPendingDiscoveries());
+
+        metrics.deviceConfigured("device1");
+        metrics.deviceDisconnected("device2");
+
+        assertEquals(0, metrics.getPendingDiscoveries());
+        assertTrue(metrics.getSnapshot().contains(ControllerMetrics.DISCOVERY_TO_CONFIGURED + ": 1 requests"));
+    }
+}
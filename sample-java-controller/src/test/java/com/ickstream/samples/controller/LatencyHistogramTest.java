@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram("empty");
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getPercentile50Micros());
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram("small");
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(20, histogram.getCount());
+        assertEquals(10, histogram.getPercentile50Micros());
+        assertEquals(18, histogram.getPercentile90Micros());
+        assertEquals(20, histogram.getPercentile99Micros());
+        assertEquals(20, histogram.getMaxMicros());
+        assertEquals(10, histogram.getMeanMicros());
+    }
+
+    @Test
+    public void testNegativeLatencyIsRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("negative");
+        histogram.record(-5000);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentile50Micros());
+    }
+
+    @Test
+    public void testPercentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram("random");
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(60000000L));
+            histogram.record(values[i] * 1000);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{1, 25, 50, 90, 99, 99.9, 100}) {
+            long expected = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long actual = histogram.getPercentileMicros(percentile);
+            assertTrue("p" + percentile + " " + actual + " below " + expected, actual >= expected);
+            assertTrue("p" + percentile + " " + actual + " too far above " + expected, actual <= expected + expected / 14 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getMaxMicros());
+    }
+
+    @Test
+    public void testLargestValue() {
+        LatencyHistogram histogram = new LatencyHistogram("large");
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE / 1000, histogram.getPercentile50Micros());
+    }
+
+    @Test
+    public void testErrorsAndTimeoutsAreCountedSeparately() {
+        LatencyHistogram histogram = new LatencyHistogram("failures");
+        histogram.record(1000);
+        histogram.recordError();
+        histogram.recordError();
+        histogram.recordTimeout();
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(2, histogram.getErrorCount());
+        assertEquals(1, histogram.getTimeoutCount());
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram("reset");
+        histogram.record(5000);
+        histogram.recordError();
+        histogram.recordTimeout();
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getErrorCount());
+        assertEquals(0, histogram.getTimeoutCount());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentile99Micros());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram("concurrent");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final long latency = (i + 1) * 1000L;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(latency);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(4, histogram.getMaxMicros());
+        assertEquals(2, histogram.getMeanMicros());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RegistryCacheTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("registry-cache", ".jsonl");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private RegistryCache load(String accessToken) {
+        RegistryCache cache = new RegistryCache(file, accessToken, 1, TimeUnit.DAYS);
+        cache.load();
+        return cache;
+    }
+
+    private static Map<String, String> items(String... ids) {
+        Map<String, String> items = new LinkedHashMap<String, String>();
+        for (String id : ids) {
+            items.put(id, "name of " + id);
+        }
+        return items;
+    }
+
+    private void appendRaw(String text) throws IOException {
+        OutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testEntriesSurviveReload() {
+        load("token").update(RegistryCache.DEVICES, items("a", "b"));
+
+        RegistryCache cache = load("token");
+
+        assertEquals(new HashSet<String>(Arrays.asList("name of a", "name of b")), new HashSet<String>(cache.get(RegistryCache.DEVICES, String.class)));
+        assertTrue(cache.get(RegistryCache.SERVICES, String.class).isEmpty());
+    }
+
+    @Test
+    public void testOtherAccessTokenIsIgnored() {
+        load("token").update(RegistryCache.DEVICES, items("a"));
+
+        assertTrue(load("other").get(RegistryCache.DEVICES, String.class).isEmpty());
+    }
+
+    @Test
+    public void testRemovedEntriesAreNotLoaded() {
+        RegistryCache cache = load("token");
+        cache.update(RegistryCache.DEVICES, items("a", "b"));
+        cache.update(RegistryCache.DEVICES, items("b"));
+
+        assertEquals(Arrays.asList("name of b"), load("token").get(RegistryCache.DEVICES, String.class));
+    }
+
+    @Test
+    public void testTornLineDoesNotSwallowNextEntry() throws IOException {
+        load("token").update(RegistryCache.DEVICES, items("a"));
+        // An interrupted append leaves a partial line without line break
+        appendRaw("{\"kind\":\"device\",\"id\":\"b\",\"exp");
+
+        RegistryCache cache = load("token");
+        assertEquals(Arrays.asList("name of a"), cache.get(RegistryCache.DEVICES, String.class));
+        cache.update(RegistryCache.DEVICES, items("a", "c"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("name of a", "name of c")), new HashSet<String>(load("token").get(RegistryCache.DEVICES, String.class)));
+    }
+}
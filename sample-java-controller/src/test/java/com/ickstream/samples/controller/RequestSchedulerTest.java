@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RequestSchedulerTest {
+    private RequestScheduler scheduler;
+
+    /**
+     * Request which is completed by the test
+     */
+    private static class ManualRequest implements RequestScheduler.Request {
+        private final List<RequestScheduler.Completion> attempts = new ArrayList<RequestScheduler.Completion>();
+        private final CountDownLatch abandoned = new CountDownLatch(1);
+        private String abandonReason;
+
+        @Override
+        public synchronized void execute(RequestScheduler.Completion completion) {
+            attempts.add(completion);
+            notifyAll();
+        }
+
+        @Override
+        public void abandon(String reason) {
+            abandonReason = reason;
+            abandoned.countDown();
+        }
+
+        synchronized int getAttempts() {
+            return attempts.size();
+        }
+
+        synchronized RequestScheduler.Completion lastAttempt() {
+            return attempts.get(attempts.size() - 1);
+        }
+
+        synchronized void awaitAttempts(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (attempts.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertEquals(count, attempts.size());
+        }
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = new RequestScheduler(2, 1, 3, 1, 5);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testLimitsPerDevice() {
+        ManualRequest first = new ManualRequest();
+        ManualRequest second = new ManualRequest();
+        scheduler.submit("a1", "a", first);
+        scheduler.submit("a2", "a", second);
+
+        assertEquals(1, first.getAttempts());
+        assertEquals(0, second.getAttempts());
+        assertEquals(1, scheduler.getQueueDepth());
+
+        first.lastAttempt().succeeded();
+        assertEquals(1, second.getAttempts());
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void testLimitsInTotal() {
+        ManualRequest a = new ManualRequest();
+        ManualRequest b = new ManualRequest();
+        ManualRequest c = new ManualRequest();
+        scheduler.submit("a", "a", a);
+        scheduler.submit("b", "b", b);
+        scheduler.submit("c", "c", c);
+
+        assertEquals(2, scheduler.getInFlight());
+        assertEquals(0, c.getAttempts());
+
+        b.lastAttempt().succeeded();
+        assertEquals(1, c.getAttempts());
+        assertEquals(2, scheduler.getInFlight());
+        assertEquals(1, scheduler.getCompletedCount());
+    }
+
+    @Test
+    public void testDuplicateIsIgnored() {
+        ManualRequest first = new ManualRequest();
+        ManualRequest duplicate = new ManualRequest();
+        assertTrue(scheduler.submit("key", "a", first));
+        assertFalse(scheduler.submit("key", "a", duplicate));
+
+        first.lastAttempt().succeeded();
+        assertEquals(0, duplicate.getAttempts());
+        // The key can be reused when the request has finished
+        assertTrue(scheduler.submit("key", "a", duplicate));
+        assertEquals(1, duplicate.getAttempts());
+    }
+
+    @Test
+    public void testCompletionReportedTwiceIsIgnored() {
+        ManualRequest request = new ManualRequest();
+        scheduler.submit("key", "a", request);
+        request.lastAttempt().succeeded();
+        request.lastAttempt().failed("late failure");
+
+        assertEquals(0, scheduler.getInFlight());
+        assertEquals(1, scheduler.getCompletedCount());
+        assertEquals(0, scheduler.getRetryCount());
+    }
+
+    @Test
+    public void testRetriedUntilAbandoned() throws Exception {
+        ManualRequest request = new ManualRequest();
+        scheduler.submit("key", "a", request);
+
+        request.lastAttempt().failed("first");
+        request.awaitAttempts(2);
+        request.lastAttempt().failed("second");
+        request.awaitAttempts(3);
+        request.lastAttempt().failed("third");
+
+        assertTrue(request.abandoned.await(5, TimeUnit.SECONDS));
+        assertEquals("third", request.abandonReason);
+        assertEquals(2, scheduler.getRetryCount());
+        assertEquals(1, scheduler.getAbandonedCount());
+        assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    public void testExceptionCountsAsFailure() throws Exception {
+        final ManualRequest retried = new ManualRequest();
+        RequestScheduler.Request failing = new RequestScheduler.Request() {
+            private boolean thrown = false;
+
+            @Override
+            public void execute(RequestScheduler.Completion completion) {
+                if (!thrown) {
+                    thrown = true;
+                    throw new IllegalStateException("failed");
+                }
+                retried.execute(completion);
+            }
+
+            @Override
+            public void abandon(String reason) {
+            }
+        };
+        scheduler.submit("key", "a", failing);
+
+        retried.awaitAttempts(1);
+        assertEquals(1, scheduler.getRetryCount());
+    }
+
+    @Test
+    public void testCancelRemovesQueuedRequests() {
+        ManualRequest first = new ManualRequest();
+        ManualRequest second = new ManualRequest();
+        scheduler.submit("a1", "a", first);
+        scheduler.submit("a2", "a", second);
+        scheduler.cancel("a");
+
+        assertEquals(0, scheduler.getQueueDepth());
+        first.lastAttempt().failed("gone");
+        assertEquals(0, second.getAttempts());
+        assertEquals(0, scheduler.getRetryCount());
+        assertEquals(0, scheduler.getInFlight());
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.loopback;
+
+import com.ickstream.common.ickp2p.MessageListener;
+import com.ickstream.common.ickp2p.ServiceType;
+import com.ickstream.protocol.service.player.VolumeRequest;
+import com.ickstream.samples.controller.*;
+import com.ickstream.samples.player.SamplePlayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Measures end to end command latency and throughput between a {@link SampleController} and a number of
+ * {@link SamplePlayer} instances running in the same process, connected through a {@link LoopbackNetwork}.
+ * <p/>
+ * Each command is a setVolume request sent from the controller, handled by the Player Protocol implementation
+ * of the player, answered with a response and followed by a player status notification back to the controller.
+ * <p/>
+ * Usage: LoopbackBenchmark [players] [commandsPerPlayer] [commandsInProgressPerPlayer]
+ */
+public class LoopbackBenchmark {
+    /**
+     * Maximum time to wait for the controller to discover all players
+     */
+    private static final long DISCOVERY_TIMEOUT = 10000;
+
+    /**
+     * Maximum time to wait for all commands of a run to be answered
+     */
+    private static final long RUN_TIMEOUT = 120000;
+
+    private final int playerCount;
+    private final int commandsPerPlayer;
+    private final int pipelineDepth;
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private final Preferences preferences = Preferences.userRoot().node("com/ickstream/samples/loopback");
+    private final List<SamplePlayer> players = new ArrayList<SamplePlayer>();
+    private final AtomicLong notifications = new AtomicLong();
+    private SampleController controller;
+
+    public LoopbackBenchmark(int playerCount, int commandsPerPlayer, int pipelineDepth) {
+        this.playerCount = playerCount;
+        this.commandsPerPlayer = commandsPerPlayer;
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public static void main(String[] args) throws InterruptedException, BackingStoreException {
+        int playerCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int commandsPerPlayer = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int pipelineDepth = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        boolean success = new LoopbackBenchmark(playerCount, commandsPerPlayer, pipelineDepth).run();
+        System.exit(success ? 0 : 1);
+    }
+
+    /**
+     * Start the players and the controller, run a warm up followed by the measured run and shut everything down
+     *
+     * @return true if all commands succeeded
+     */
+    public boolean run() throws InterruptedException, BackingStoreException {
+        try {
+            if (!start()) {
+                return false;
+            }
+            System.out.println("Warming up...");
+            runCommands(Math.max(1, commandsPerPlayer / 10), new LatencyHistogram("warmup"));
+
+            System.out.println("Running " + commandsPerPlayer + " commands on each of " + playerCount + " players with " +
+                    pipelineDepth + " commands in progress per player...");
+            LatencyHistogram latencies = new LatencyHistogram("setVolume");
+            long notificationsBefore = notifications.get();
+            long messagesBefore = network.getMessageCount();
+            long startTime = System.nanoTime();
+            boolean success = runCommands(commandsPerPlayer, latencies);
+            long duration = System.nanoTime() - startTime;
+
+            double seconds = duration / 1000000000.0;
+            System.out.println(latencies);
+            System.out.println("Throughput: " + Math.round(latencies.getCount() / seconds) + " commands/s");
+            System.out.println("Notifications received: " + (notifications.get() - notificationsBefore));
+            System.out.println("Messages delivered: " + (network.getMessageCount() - messagesBefore));
+            return success;
+        } finally {
+            shutdown();
+        }
+    }
+
+    private boolean start() throws InterruptedException {
+        for (int i = 0; i < playerCount; i++) {
+            // Each player needs its own settings, otherwise they would share name and identity
+            Preferences playerPreferences = preferences.node("player-" + (i + 1));
+            playerPreferences.put("playerName", "Loopback Player " + (i + 1));
+            SamplePlayer player = new SamplePlayer(network.createDevice(), playerPreferences);
+            if (!player.start()) {
+                return false;
+            }
+            players.add(player);
+        }
+
+        LoopbackIckP2p controllerIckP2p = network.createDevice();
+        final MessageDecoder decoder = new MessageDecoder();
+        controllerIckP2p.addMessageListener(new MessageListener() {
+            @Override
+            public void onMessage(String sourceDeviceId, ServiceType sourceServiceType, String targetDeviceId, ServiceType targetServiceType, byte[] message) {
+                if (decoder.peek(message).getType() == MessageDecoder.Type.NOTIFICATION) {
+                    notifications.incrementAndGet();
+                }
+            }
+        });
+        controller = new SampleController(controllerIckP2p);
+        try {
+            if (!controller.start(null)) {
+                return false;
+            }
+        } catch (BackingStoreException e) {
+            System.err.println("Unable to start controller: " + e.getMessage());
+            return false;
+        }
+
+        long deadline = System.currentTimeMillis() + DISCOVERY_TIMEOUT;
+        while (controller.getRegistry().getPlayers().size() < playerCount) {
+            if (System.currentTimeMillis() > deadline) {
+                System.err.println("Only " + controller.getRegistry().getPlayers().size() + " of " + playerCount + " players discovered");
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Send setVolume commands to all players in parallel, with a limited number of commands in progress per player
+     *
+     * @param count     Number of commands per player
+     * @param latencies Histogram where the latency of each command is recorded
+     * @return true if all commands succeeded
+     */
+    private boolean runCommands(int count, final LatencyHistogram latencies) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(count * playerCount);
+        final AtomicLong failures = new AtomicLong();
+        List<Thread> senders = new ArrayList<Thread>();
+        List<PlayerCommandChannel> channels = new ArrayList<PlayerCommandChannel>();
+        for (final Device player : controller.getRegistry().getPlayers()) {
+            final PlayerCommandChannel channel = controller.createCommandChannel(player.getId());
+            channels.add(channel);
+            final Semaphore inProgress = new Semaphore(pipelineDepth);
+            final int commands = count;
+            Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < commands; i++) {
+                        VolumeRequest request = new VolumeRequest();
+                        // Alternate the volume so every command changes the player status
+                        request.setVolumeLevel(i % 2 == 0 ? 0.25 : 0.75);
+                        try {
+                            inProgress.acquire();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        channel.setVolume(request, new PlayerCommandChannel.ResultHandler() {
+                            @Override
+                            public void onResult(boolean success, String error, long latencyNanos) {
+                                if (success) {
+                                    latencies.record(latencyNanos);
+                                } else {
+                                    latencies.recordError();
+                                    failures.incrementAndGet();
+                                }
+                                inProgress.release();
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            }, "sender-" + player.getName());
+            sender.setDaemon(true);
+            senders.add(sender);
+        }
+        for (Thread sender : senders) {
+            sender.start();
+        }
+        if (!done.await(RUN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            System.err.println(done.getCount() + " commands not answered within " + RUN_TIMEOUT + " ms");
+            for (Thread sender : senders) {
+                sender.interrupt();
+            }
+            for (PlayerCommandChannel channel : channels) {
+                channel.abandonPending();
+            }
+            return false;
+        }
+        return failures.get() == 0;
+    }
+
+    private void shutdown() throws BackingStoreException {
+        if (controller != null) {
+            controller.shutdown();
+        }
+        for (SamplePlayer player : players) {
+            player.shutdown();
+        }
+        preferences.removeNode();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.loopback;
+
+import com.ickstream.common.ickp2p.*;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * ickStream P2P implementation for a device on a {@link LoopbackNetwork}, used instead of the native implementation
+ * to run players and controllers in the same process without any network.
+ * <p/>
+ * Discovery events and messages for the device are queued and delivered in order on a thread of its own, just like
+ * the native implementation delivers them on its own threads.
+ */
+public class LoopbackIckP2p implements IckP2p {
+    private final LoopbackNetwork network;
+    private final List<DiscoveryListener> discoveryListeners = new CopyOnWriteArrayList<DiscoveryListener>();
+    private final List<MessageListener> messageListeners = new CopyOnWriteArrayList<MessageListener>();
+    private final BlockingQueue<Runnable> events = new LinkedBlockingQueue<Runnable>();
+
+    private volatile String deviceName;
+    private volatile String deviceId;
+    private volatile ServiceType services;
+    private Thread deliveryThread;
+
+    LoopbackIckP2p(LoopbackNetwork network) {
+        this.network = network;
+    }
+
+    String getDeviceId() {
+        return deviceId;
+    }
+
+    String getDeviceName() {
+        return deviceName;
+    }
+
+    ServiceType getServices() {
+        return services;
+    }
+
+    @Override
+    public synchronized void create(String deviceName, String deviceId, String dataFolder, Integer lifetime, Integer port, ServiceType services) throws IckP2pException {
+        if (deliveryThread != null) {
+            throw new IckP2pException(-1, "Already created");
+        }
+        this.deviceName = deviceName;
+        this.deviceId = deviceId;
+        this.services = services;
+        deliveryThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliver();
+            }
+        }, "loopback-" + deviceName);
+        deliveryThread.setDaemon(true);
+        deliveryThread.start();
+    }
+
+    @Override
+    public synchronized void end() throws IckP2pException {
+        network.leave(this);
+        if (deliveryThread != null) {
+            deliveryThread.interrupt();
+            deliveryThread = null;
+        }
+        events.clear();
+    }
+
+    @Override
+    public synchronized void resume() throws IckP2pException {
+        if (deliveryThread == null) {
+            throw new IckP2pException(-1, "Not created");
+        }
+        network.join(this);
+    }
+
+    @Override
+    public void suspend() throws IckP2pException {
+        network.leave(this);
+    }
+
+    @Override
+    public void addInterface(String networkInterface, String hostname) throws IckP2pException {
+        // All devices are on the same in-memory network
+    }
+
+    @Override
+    public void sendMsg(String targetDeviceId, ServiceType targetServiceType, ServiceType sourceServiceType, byte[] message) throws IckP2pException {
+        if (!network.send(this, sourceServiceType != null ? sourceServiceType : services, targetDeviceId, targetServiceType, message)) {
+            throw new IckP2pException(-1, "Device not available: " + targetDeviceId);
+        }
+    }
+
+    @Override
+    public void sendMsg(String targetDeviceId, ServiceType targetServiceType, byte[] message) throws IckP2pException {
+        sendMsg(targetDeviceId, targetServiceType, null, message);
+    }
+
+    @Override
+    public void sendMsg(ServiceType targetServiceType, byte[] message) throws IckP2pException {
+        network.broadcast(this, services, message);
+    }
+
+    @Override
+    public void addDiscoveryListener(DiscoveryListener listener) {
+        discoveryListeners.add(listener);
+    }
+
+    @Override
+    public void removeDiscoveryListener(DiscoveryListener listener) {
+        discoveryListeners.remove(listener);
+    }
+
+    @Override
+    public void addMessageListener(MessageListener listener) {
+        messageListeners.add(listener);
+    }
+
+    @Override
+    public void removeMessageListener(MessageListener listener) {
+        messageListeners.remove(listener);
+    }
+
+    void deliverConnected(LoopbackIckP2p device) {
+        final DiscoveryEvent event = new DiscoveryEvent(device.getDeviceId(), device.getDeviceName(), device.getServices());
+        events.add(new Runnable() {
+            @Override
+            public void run() {
+                for (DiscoveryListener listener : discoveryListeners) {
+                    listener.onConnectedDevice(event);
+                }
+            }
+        });
+    }
+
+    void deliverDisconnected(final String deviceId) {
+        events.add(new Runnable() {
+            @Override
+            public void run() {
+                for (DiscoveryListener listener : discoveryListeners) {
+                    listener.onDisconnectedDevice(deviceId);
+                }
+            }
+        });
+    }
+
+    void deliverMessage(final String sourceDeviceId, final ServiceType sourceServiceType, final ServiceType targetServiceType, final byte[] message) {
+        events.add(new Runnable() {
+            @Override
+            public void run() {
+                for (MessageListener listener : messageListeners) {
+                    listener.onMessage(sourceDeviceId, sourceServiceType, deviceId, targetServiceType, message);
+                }
+            }
+        });
+    }
+
+    private void deliver() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Runnable event;
+            try {
+                event = events.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                System.err.println("Failed to deliver event to " + deviceName + ": " + e);
+            }
+        }
+    }
+}
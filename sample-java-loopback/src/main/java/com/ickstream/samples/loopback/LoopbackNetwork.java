@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.loopback;
+
+import com.ickstream.common.ickp2p.ServiceType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory network connecting any number of {@link LoopbackIckP2p} devices in the same process.
+ * <p/>
+ * A device which is resumed is announced to all other resumed devices and receives announcements for all of them,
+ * messages are delivered to the event queue of the target device. Broadcast messages, such as player notifications,
+ * are delivered to all other devices which don't offer the same service type as the sender.
+ */
+public class LoopbackNetwork {
+    private final Map<String, LoopbackIckP2p> devices = new ConcurrentHashMap<String, LoopbackIckP2p>();
+    private final List<LoopbackIckP2p> deviceList = new CopyOnWriteArrayList<LoopbackIckP2p>();
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+
+    /**
+     * Create a new device connected to this network
+     *
+     * @return The ickStream P2P implementation of the device
+     */
+    public LoopbackIckP2p createDevice() {
+        return new LoopbackIckP2p(this);
+    }
+
+    /**
+     * Announce a device to all other devices and all other devices to it
+     *
+     * @param device The device which joins the network
+     */
+    synchronized void join(LoopbackIckP2p device) {
+        if (devices.containsKey(device.getDeviceId())) {
+            return;
+        }
+        for (LoopbackIckP2p other : deviceList) {
+            other.deliverConnected(device);
+            device.deliverConnected(other);
+        }
+        devices.put(device.getDeviceId(), device);
+        deviceList.add(device);
+    }
+
+    /**
+     * Tell all other devices that a device has left the network
+     *
+     * @param device The device which leaves the network
+     */
+    synchronized void leave(LoopbackIckP2p device) {
+        if (devices.remove(device.getDeviceId()) == null) {
+            return;
+        }
+        deviceList.remove(device);
+        for (LoopbackIckP2p other : deviceList) {
+            other.deliverDisconnected(device.getDeviceId());
+        }
+    }
+
+    /**
+     * Deliver a message to a specific device
+     *
+     * @return false if the target device isn't on the network
+     */
+    boolean send(LoopbackIckP2p source, ServiceType sourceServiceType, String targetDeviceId, ServiceType targetServiceType, byte[] message) {
+        LoopbackIckP2p target = devices.get(targetDeviceId);
+        if (target == null) {
+            return false;
+        }
+        messageCount.incrementAndGet();
+        byteCount.addAndGet(message.length);
+        // Copy the message as a real network would, so the sender is free to reuse its buffer
+        target.deliverMessage(source.getDeviceId(), sourceServiceType, targetServiceType, message.clone());
+        return true;
+    }
+
+    /**
+     * Deliver a message to all devices which don't offer the same service type as the sender
+     */
+    void broadcast(LoopbackIckP2p source, ServiceType sourceServiceType, byte[] message) {
+        for (LoopbackIckP2p target : deviceList) {
+            if (target != source && !target.getServices().isType(sourceServiceType)) {
+                messageCount.incrementAndGet();
+                byteCount.addAndGet(message.length);
+                target.deliverMessage(source.getDeviceId(), sourceServiceType, target.getServices(), message.clone());
+            }
+        }
+    }
+
+    /**
+     * @return Number of messages delivered, a broadcast counts once per receiving device
+     */
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * @return Number of bytes delivered
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+}
@@ -38,11 +38,9 @@ import com.ickstream.player.service.PlayerNotificationSender;
 import com.ickstream.protocol.common.NetworkAddressHelper;
 import com.ickstream.protocol.common.data.ContentItem;
 import com.ickstream.protocol.common.data.StreamingReference;
-import com.ickstream.protocol.common.data.TrackAttributes;
 import com.ickstream.protocol.common.exception.ServiceException;
 import com.ickstream.protocol.common.exception.ServiceTimeoutException;
 import com.ickstream.protocol.service.content.ContentService;
-import com.ickstream.protocol.service.content.ContentServiceFactory;
 import com.ickstream.protocol.service.content.GetItemStreamingRefRequest;
 import com.ickstream.protocol.service.core.CoreService;
 import com.ickstream.protocol.service.core.CoreServiceFactory;
@@ -51,48 +49,111 @@ import com.ickstream.protocol.service.core.SetDeviceAddressRequest;
 import com.ickstream.protocol.service.player.*;
 import com.ickstream.protocol.service.scrobble.PlayedItem;
 import com.ickstream.protocol.service.scrobble.ScrobbleService;
-import com.ickstream.protocol.service.scrobble.ScrobbleServiceFactory;
 
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.prefs.BackingStoreException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.prefs.Preferences;
 
 public class DummyPlayerManager implements PlayerManager {
+    /**
+     * Number of upcoming tracks which streaming references are resolved in advance
+     */
+    private static final int PREFETCH_COUNT = 2;
+
     private String id;
     private Double volume = 0.5d;
-    private Double seekPosition = 0.0;
+    /**
+     * Seek position in seconds at the time the playback clock was last started, stopped or moved
+     */
+    private double seekAnchor = 0.0;
+    /**
+     * Value of {@link System#nanoTime()} when the playback clock was last started or moved, only valid while running
+     */
+    private long seekAnchorNanos;
+    private boolean clockRunning = false;
+    private final Object clockLock = new Object();
     private PlayerNotificationSender notificationSender;
     private String hardwareId;
-    private Timer playingProgressTimer;
+    private final ScheduledExecutorService scheduler = PlaybackScheduler.get();
+    private ScheduledFuture<?> endOfTrackTask;
     private PlayerStatus playerStatus;
     private JsonHelper jsonHelper = new JsonHelper();
-    private ScrobbleService scrobbleService;
-    private PlaybackQueueItem playingTrack;
-    private StreamingReference playingStreamingRef;
+    private final ScrobbleOutbox scrobbleOutbox;
+    private volatile PlaybackQueueItem playingTrack;
+    private volatile StreamingReference playingStreamingRef;
+    private final StreamingRefResolver streamingRefResolver = new StreamingRefResolver() {
+        @Override
+        protected StreamingReference fetch(String trackId) {
+            return retrieveItemStreamingRef(trackId);
+        }
+    };
+    /**
+     * Parsed metadata of the most recently used queue item, replaced when another item is used
+     */
+    private volatile TrackMetadata trackMetadata;
     private MessageLogger messageLogger;
+    private final ServiceClientRegistry serviceClients;
+
+    /**
+     * Play order in shuffle repeat mode, null when not in shuffle repeat mode
+     */
+    private ShuffleOrder shuffleOrder;
+
+    /**
+     * Position of each queue item when the shuffle order was last synchronized, used to detect which items have been
+     * added, removed or moved
+     */
+    private Map<PlaybackQueueItemInstance, Integer> shufflePositions;
+    private Long shuffleQueueTimestamp;
+    private final Random shuffleRandom = new Random();
+    private final Object shuffleLock = new Object();
     private ServiceUrlManager serviceUrlManager;
+
+    /**
+     * Resolver of service urls which online services should follow the access token and Cloud Core url, or null
+     */
+    private volatile ServiceUrlResolver serviceUrlResolver;
     private final Object syncObject;
+    private final PlayerConfiguration configuration;
 
     public DummyPlayerManager(String hardwareId, PlayerStatus playerStatus, PlayerNotificationSender notificationSender, ScrobbleService scrobbleService, MessageLogger messageLogger, ServiceUrlManager serviceUrlManager, Object syncObject) {
+        this(hardwareId, playerStatus, notificationSender, scrobbleService, messageLogger, serviceUrlManager, syncObject, new PlayerConfiguration(Preferences.userNodeForPackage(DummyPlayerManager.class)));
+    }
+
+    public DummyPlayerManager(String hardwareId, PlayerStatus playerStatus, PlayerNotificationSender notificationSender, ScrobbleService scrobbleService, MessageLogger messageLogger, ServiceUrlManager serviceUrlManager, Object syncObject, PlayerConfiguration configuration) {
+        this(hardwareId, playerStatus, notificationSender, scrobbleService, messageLogger, serviceUrlManager, syncObject, configuration, new ScrobbleOutbox(null));
+    }
+
+    public DummyPlayerManager(String hardwareId, PlayerStatus playerStatus, PlayerNotificationSender notificationSender, ScrobbleService scrobbleService, MessageLogger messageLogger, ServiceUrlManager serviceUrlManager, Object syncObject, PlayerConfiguration configuration, ScrobbleOutbox scrobbleOutbox) {
+        this(hardwareId, playerStatus, notificationSender, scrobbleService, messageLogger, serviceUrlManager, syncObject, configuration, scrobbleOutbox, new ServiceClientRegistry(messageLogger));
+    }
+
+    public DummyPlayerManager(String hardwareId, PlayerStatus playerStatus, PlayerNotificationSender notificationSender, ScrobbleService scrobbleService, MessageLogger messageLogger, ServiceUrlManager serviceUrlManager, Object syncObject, PlayerConfiguration configuration, ScrobbleOutbox scrobbleOutbox, ServiceClientRegistry serviceClients) {
+        this.configuration = configuration;
         this.notificationSender = notificationSender;
         this.hardwareId = hardwareId;
         this.playerStatus = playerStatus;
-        this.scrobbleService = scrobbleService;
+        this.scrobbleOutbox = scrobbleOutbox;
+        scrobbleOutbox.setScrobbleService(scrobbleService);
         this.messageLogger = messageLogger;
+        this.serviceClients = serviceClients;
         this.serviceUrlManager = serviceUrlManager;
         //TODO: We should implement synchronization support based on the syncObject
         this.syncObject = syncObject;
     }
 
     public void shutdown() {
-        if(playingProgressTimer != null) {
-            playingProgressTimer.cancel();
-        }
+        stopClock();
+        scrobbleOutbox.shutdown();
+        configuration.flush();
     }
 
     public String getCurrentStreamingUrl() {
@@ -104,7 +165,7 @@ public class DummyPlayerManager implements PlayerManager {
     }
 
     private void reportTrackAsPlayed(PlaybackQueueItem playlistItem) {
-        if (scrobbleService != null) {
+        if (hasAccessToken()) {
             ContentItem playedItem = new ContentItem();
             playedItem.setId(playlistItem.getId());
             playedItem.setText(playlistItem.getText());
@@ -112,44 +173,38 @@ public class DummyPlayerManager implements PlayerManager {
             playedItem.setType(playlistItem.getType());
             playedItem.setStreamingRefs(playlistItem.getStreamingRefs());
             playedItem.setItemAttributes(playlistItem.getItemAttributes());
-            try {
-                scrobbleService.playedTrack(new PlayedItem(System.currentTimeMillis(), null, playedItem));
-            } catch (ServiceException e) {
-                e.printStackTrace();
-                //TODO: Some error handling ?
-            } catch (ServiceTimeoutException e) {
-                e.printStackTrace();
-                //TODO: Some error handling ?
-            }
+            // Sent in the background, so a slow or unreachable scrobble service doesn't delay playback
+            scrobbleOutbox.add(new PlayedItem(System.currentTimeMillis(), null, playedItem));
         }
     }
 
     @Override
     public void setAccessToken(String accessToken) {
-        Preferences preferences = Preferences.userNodeForPackage(this.getClass());
         if (accessToken != null) {
-            preferences.put("accessToken", accessToken);
+            configuration.put("accessToken", accessToken);
         } else {
-            preferences.remove("accessToken");
-            preferences.remove("userId");
-        }
-        try {
-            preferences.flush();
-        } catch (BackingStoreException e) {
-            e.printStackTrace();
+            Map<String, String> changes = new HashMap<String, String>();
+            changes.put("accessToken", null);
+            changes.put("userId", null);
+            configuration.update(changes);
+            serviceClients.clear();
+            setResolverCoreService(null);
         }
         if (accessToken != null) {
-            CoreService coreService = CoreServiceFactory.getCoreService(getCloudCoreUrl(), accessToken, messageLogger);
+            CoreService coreService = serviceClients.getCoreService(getCloudCoreUrl(), accessToken);
             SetDeviceAddressRequest request = new SetDeviceAddressRequest(NetworkAddressHelper.getNetworkAddress());
             try {
                 DeviceResponse deviceResponse = coreService.setDeviceAddress(request);
                 if (deviceResponse.getName() != null) {
                     setName(deviceResponse.getName());
                 }
-                scrobbleService = ScrobbleServiceFactory.getScrobbleService(getCloudCoreUrl(), accessToken, messageLogger);
+                scrobbleOutbox.setScrobbleService(serviceClients.getScrobbleService(getCloudCoreUrl(), accessToken));
+                setResolverCoreService(coreService);
             } catch (ServiceException e) {
+                setResolverCoreService(null);
                 e.printStackTrace();
             } catch (ServiceTimeoutException e) {
+                setResolverCoreService(null);
                 e.printStackTrace();
             }
         }
@@ -166,65 +221,64 @@ public class DummyPlayerManager implements PlayerManager {
 
     @Override
     public void setUserId(String userId) {
-        Preferences preferences = Preferences.userNodeForPackage(this.getClass());
-        preferences.put("userId", userId);
-        try {
-            preferences.flush();
-        } catch (BackingStoreException e) {
-            e.printStackTrace();
-        }
+        configuration.put("userId", userId);
     }
 
     @Override
     public String getUserId() {
-        Preferences preferences = Preferences.userNodeForPackage(this.getClass());
-        return preferences.get("userId", null);
+        return configuration.get("userId", null);
     }
 
     @Override
     public Boolean hasAccessToken() {
-        Preferences preferences = Preferences.userNodeForPackage(this.getClass());
-        String accessToken = preferences.get("accessToken", null);
+        String accessToken = configuration.get("accessToken", null);
         return accessToken != null;
     }
 
     @Override
     public String getCloudCoreUrl() {
-        Preferences preferences = Preferences.userNodeForPackage(this.getClass());
-        return preferences.get("cloudCoreUrl", CoreServiceFactory.getCoreServiceEndpoint());
+        return configuration.get("cloudCoreUrl", CoreServiceFactory.getCoreServiceEndpoint());
     }
 
     @Override
     public void setCloudCoreUrl(String cloudCoreUrl) {
-        Preferences preferences = Preferences.userNodeForPackage(this.getClass());
         String previousCloudCoreUrl = getCloudCoreUrl();
         if (!previousCloudCoreUrl.equals(cloudCoreUrl)) {
-            preferences.remove("accessToken");
-            preferences.remove("userId");
-            preferences.put("cloudCoreUrl", cloudCoreUrl);
-            try {
-                preferences.flush();
-            } catch (BackingStoreException e) {
-                e.printStackTrace();
-            }
+            Map<String, String> changes = new HashMap<String, String>();
+            changes.put("accessToken", null);
+            changes.put("userId", null);
+            changes.put("cloudCoreUrl", cloudCoreUrl);
+            configuration.update(changes);
+            serviceClients.clear();
+            setResolverCoreService(null);
+        }
+    }
+
+    /**
+     * Set the resolver of service urls which online services should be refreshed with the Cloud Core client
+     * of the current access token
+     *
+     * @param serviceUrlResolver The resolver, or null
+     */
+    public void setServiceUrlResolver(ServiceUrlResolver serviceUrlResolver) {
+        this.serviceUrlResolver = serviceUrlResolver;
+    }
+
+    private void setResolverCoreService(CoreService coreService) {
+        ServiceUrlResolver resolver = serviceUrlResolver;
+        if (resolver != null) {
+            resolver.setCoreService(coreService);
         }
     }
 
     @Override
     public void setName(String name) {
-        Preferences preferences = Preferences.userNodeForPackage(this.getClass());
-        preferences.put("playerName", name);
-        try {
-            preferences.flush();
-        } catch (BackingStoreException e) {
-            e.printStackTrace();
-        }
+        configuration.put("playerName", name);
     }
 
     @Override
     public String getName() {
-        Preferences preferences = Preferences.userNodeForPackage(this.getClass());
-        return preferences.get("playerName", null);
+        return configuration.get("playerName", null);
     }
 
     @Override
@@ -239,86 +293,51 @@ public class DummyPlayerManager implements PlayerManager {
 
     @Override
     public Boolean play() {
-        PlaybackQueueItem item = playerStatus.getCurrentPlaylistItem();
+        final PlaybackQueueItem item = playerStatus.getCurrentPlaylistItem();
         if (item != null) {
             if (playingTrack != null && !item.equals(playingTrack)) {
                 reportTrackAsPlayed(playingTrack);
                 playingTrack = null;
             }
-            if (playingProgressTimer != null) {
-                playingProgressTimer.cancel();
-            }
-            playingProgressTimer = new Timer();
+            stopClock();
             if (playerStatus.getSeekPos() != null) {
-                seekPosition = playerStatus.getSeekPos();
+                setSeekPosition(playerStatus.getSeekPos());
             }
-            playerStatus.setSeekPos(seekPosition);
+            playerStatus.setSeekPos(getSeekPosition());
             playerStatus.setPlaying(true);
 
+            boolean newTrack = playingTrack == null;
+            playingTrack = item;
+
             // Make sure we have a suitable streaming url in case this is a new track
-            if(playingTrack == null) {
-                if(item.getStreamingRefs() != null && item.getStreamingRefs().size()>0) {
-                    playingStreamingRef = item.getStreamingRefs().get(0);
-                }else if(item.getStreamingRefs() == null) {
-                    playingStreamingRef = retrieveItemStreamingRef(item.getId());
-                }else {
+            if(newTrack) {
+                TrackMetadata metadata = getTrackMetadata(item);
+                if(metadata.getStreamingRefs() != null && metadata.getStreamingRefs().size()>0) {
+                    playingStreamingRef = toPlayableStreamingRef(metadata.getStreamingRefs().get(0));
+                }else if(metadata.getStreamingRefs() == null) {
+                    // Resolved in the background so a slow content service doesn't block the caller, if the track
+                    // was prefetched the listener is called directly
                     playingStreamingRef = null;
-                }
-                if(playingStreamingRef != null) {
-                    try {
-                        URI uri = new URI(playingStreamingRef.getUrl());
-                        if (uri.getScheme().equals("service")) {
-                            String serviceUrl = serviceUrlManager.getServiceUrl(uri.getAuthority());
-                            if (serviceUrl != null) {
-                                playingStreamingRef.setUrl(serviceUrl + uri.getPath() + (uri.getQuery() != null ? "?" + uri.getQuery() : "") + (uri.getFragment() != null ? "#" + uri.getFragment() : ""));
-                            }else {
-                                System.err.println("Unable to resolve service url for service: "+uri.getAuthority());
-                                playingStreamingRef = null;
-                            }
-                        }
-                    } catch (URISyntaxException e) {
-                        System.err.println("Invalid url: "+playingStreamingRef.getUrl());
-                        e.printStackTrace();
-                        playingStreamingRef = null;
-                    }
-                }
-            }
-            playingTrack = item;
-            playingProgressTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    seekPosition += 1.0;
-                    if (playerStatus.getCurrentPlaylistItem() != null) {
-                        if (playerStatus.getCurrentPlaylistItem().getItemAttributes() != null) {
-                            TrackAttributes trackAttributes = jsonHelper.jsonToObject(playerStatus.getCurrentPlaylistItem().getItemAttributes(), TrackAttributes.class);
-                            if (trackAttributes != null && trackAttributes.getDuration() != null && trackAttributes.getDuration() < seekPosition) {
-                                reportTrackAsPlayed(playerStatus.getCurrentPlaylistItem());
-                                playingTrack = null;
-                                if (playerStatus.getPlaybackQueuePos() != null && playerStatus.getPlaybackQueuePos() < playerStatus.getPlaybackQueue().getItems().size() - 1) {
-                                    playerStatus.setPlaybackQueuePos(playerStatus.getPlaybackQueuePos() + 1);
-                                    playerStatus.setSeekPos(0.0);
-                                    play();
-                                } else {
-                                    playerStatus.setPlaybackQueuePos(0);
-                                    playerStatus.setSeekPos(0.0);
-                                    seekPosition = 0.0;
-                                    if (playerStatus.getPlaybackQueueMode().equals(PlaybackQueueMode.QUEUE_REPEAT_SHUFFLE)) {
-                                        List<PlaybackQueueItemInstance> playlistItems = playerStatus.getPlaybackQueue().getItems();
-                                        Collections.shuffle(playlistItems);
-                                        playerStatus.getPlaybackQueue().setItems(playlistItems);
-                                        sendPlaylistChangedNotification();
-                                    }
-                                    if (playerStatus.getPlaybackQueueMode().equals(PlaybackQueueMode.QUEUE)) {
-                                        pause();
-                                    } else {
-                                        play();
-                                    }
+                    final AtomicBoolean resolvedLater = new AtomicBoolean(false);
+                    streamingRefResolver.resolve(item.getId(), new StreamingRefResolver.Listener() {
+                        @Override
+                        public void onResolved(String trackId, StreamingReference streamingRef) {
+                            if (item == playingTrack) {
+                                playingStreamingRef = toPlayableStreamingRef(streamingRef);
+                                // Controllers have already been notified about the track without a streaming url
+                                if (resolvedLater.get()) {
+                                    sendPlayerStatusChangedNotification();
                                 }
                             }
                         }
-                    }
+                    });
+                    resolvedLater.set(true);
+                }else {
+                    playingStreamingRef = null;
                 }
-            }, 0, 1000);
+            }
+            startClock();
+            prefetchStreamingRefs();
             sendPlayerStatusChangedNotification();
             return true;
         } else {
@@ -326,14 +345,257 @@ public class DummyPlayerManager implements PlayerManager {
         }
     }
 
+    /**
+     * Replace service:// urls with the url of the service, the streaming reference is shared with the track
+     * metadata and the resolver cache so a copy is returned if the url is changed
+     *
+     * @param streamingRef The streaming reference to play
+     * @return The streaming reference, or null if the url can't be resolved
+     */
+    private StreamingReference toPlayableStreamingRef(StreamingReference streamingRef) {
+        if(streamingRef != null) {
+            String url = ServiceUrlResolver.resolve(streamingRef.getUrl(), serviceUrlManager);
+            if (url == null) {
+                System.err.println("Unable to resolve service url for: "+streamingRef.getUrl());
+                return null;
+            }
+            if (!url.equals(streamingRef.getUrl())) {
+                StreamingReference copy = jsonHelper.jsonToObject(jsonHelper.objectToJson(streamingRef), StreamingReference.class);
+                if (copy == null) {
+                    return null;
+                }
+                copy.setUrl(url);
+                return copy;
+            }
+        }
+        return streamingRef;
+    }
+
+    /**
+     * Resolve the streaming references of the tracks that will be played next in the background, in the order the
+     * end of track handling will advance through the queue
+     */
+    private void prefetchStreamingRefs() {
+        Integer pos = playerStatus.getPlaybackQueuePos();
+        List<PlaybackQueueItemInstance> items = playerStatus.getPlaybackQueue().getItems();
+        if (pos == null) {
+            return;
+        }
+        PlaybackQueueMode mode = playerStatus.getPlaybackQueueMode();
+        for (int i = 1; i <= PREFETCH_COUNT && i < items.size(); i++) {
+            int next;
+            if (mode == PlaybackQueueMode.QUEUE_REPEAT_SHUFFLE) {
+                next = peekShuffledPosition(i - 1);
+                if (next < 0 || next >= items.size()) {
+                    break;
+                }
+            } else {
+                next = pos + i;
+                if (next >= items.size()) {
+                    // Playback stops at the end in queue mode, the other modes start over from the beginning
+                    if (mode == PlaybackQueueMode.QUEUE) {
+                        break;
+                    }
+                    next -= items.size();
+                }
+            }
+            PlaybackQueueItemInstance nextItem = items.get(next);
+            if (nextItem.getStreamingRefs() == null) {
+                streamingRefResolver.resolve(nextItem.getId(), null);
+            }
+        }
+    }
+
+    /**
+     * Pick the next queue position in shuffle repeat mode
+     *
+     * @return The queue position
+     */
+    private int nextShuffledPosition() {
+        synchronized (shuffleLock) {
+            syncShuffleOrder();
+            int next = shuffleOrder.next();
+            return next >= 0 ? next : 0;
+        }
+    }
+
+    /**
+     * Get an upcoming queue position in shuffle repeat mode without moving to it
+     *
+     * @param offset 0 for the next position, 1 for the one after that and so on
+     * @return The queue position, or -1 if it isn't known yet
+     */
+    private int peekShuffledPosition(int offset) {
+        synchronized (shuffleLock) {
+            syncShuffleOrder();
+            return shuffleOrder.peek(offset);
+        }
+    }
+
+    /**
+     * Update the shuffle order with items added to or removed from the queue since the last call and mark the
+     * current position as played, must be called while holding the shuffle lock
+     */
+    private void syncShuffleOrder() {
+        List<PlaybackQueueItemInstance> items = playerStatus.getPlaybackQueue().getItems();
+        Long timestamp = playerStatus.getPlaybackQueue().getChangedTimestamp();
+        if (shuffleOrder == null) {
+            shuffleOrder = new ShuffleOrder(items.size(), shuffleRandom);
+            shufflePositions = indexPositions(items);
+            shuffleQueueTimestamp = timestamp;
+        } else if (timestamp == null || !timestamp.equals(shuffleQueueTimestamp) || items.size() != shuffleOrder.size()) {
+            // Items are looked up by identity, so any number of adds, removes and moves is reflected without
+            // touching the order of the items which are still in the queue
+            Map<PlaybackQueueItemInstance, Integer> positions = indexPositions(items);
+            int[] newPositions = new int[shuffleOrder.size()];
+            Arrays.fill(newPositions, -1);
+            for (Map.Entry<PlaybackQueueItemInstance, Integer> entry : shufflePositions.entrySet()) {
+                Integer newPosition = positions.get(entry.getKey());
+                if (newPosition != null) {
+                    newPositions[entry.getValue()] = newPosition;
+                }
+            }
+            shuffleOrder.remap(newPositions, items.size());
+            shufflePositions = positions;
+            shuffleQueueTimestamp = timestamp;
+        }
+        if (playerStatus.getPlaybackQueuePos() != null) {
+            shuffleOrder.markPlayed(playerStatus.getPlaybackQueuePos());
+        }
+    }
+
+    private static Map<PlaybackQueueItemInstance, Integer> indexPositions(List<PlaybackQueueItemInstance> items) {
+        Map<PlaybackQueueItemInstance, Integer> positions = new IdentityHashMap<PlaybackQueueItemInstance, Integer>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            positions.put(items.get(i), i);
+        }
+        return positions;
+    }
+
+    /**
+     * Get the parsed metadata of a queue item, it's only parsed again if another item than last time is requested
+     *
+     * @param item The queue item
+     * @return The metadata of the item
+     */
+    public TrackMetadata getTrackMetadata(PlaybackQueueItem item) {
+        TrackMetadata metadata = trackMetadata;
+        if (metadata == null || !metadata.isFor(item)) {
+            metadata = TrackMetadata.create(item, jsonHelper);
+            trackMetadata = metadata;
+        }
+        return metadata;
+    }
+
+    /**
+     * Start the playback clock at the current seek position and schedule the end of the current track
+     */
+    private void startClock() {
+        synchronized (clockLock) {
+            if (!clockRunning) {
+                seekAnchorNanos = System.nanoTime();
+                clockRunning = true;
+            }
+            scheduleEndOfTrack();
+        }
+    }
+
+    /**
+     * Stop the playback clock, the seek position stays at the position where it was stopped
+     */
+    private void stopClock() {
+        synchronized (clockLock) {
+            if (clockRunning) {
+                seekAnchor = getSeekPosition();
+                clockRunning = false;
+            }
+            if (endOfTrackTask != null) {
+                // Not interrupted since this might be called from the task itself when advancing to the next track
+                endOfTrackTask.cancel(false);
+                endOfTrackTask = null;
+            }
+        }
+    }
+
+    /**
+     * Schedule a single timer for the moment the current track ends, there is no timer at all if the duration of the
+     * track is unknown. Must be called while holding the clock lock
+     */
+    private void scheduleEndOfTrack() {
+        if (endOfTrackTask != null) {
+            endOfTrackTask.cancel(false);
+            endOfTrackTask = null;
+        }
+        final PlaybackQueueItem item = playerStatus.getCurrentPlaylistItem();
+        if (clockRunning && item != null) {
+            Double duration = getTrackMetadata(item).getDuration();
+            if (duration != null) {
+                long remainingNanos = (long) ((duration - getSeekPosition()) * 1000000000L);
+                endOfTrackTask = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            onEndOfTrack(item);
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }, Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Called when the track has played to its end, advances to the next track according to the playback queue mode
+     *
+     * @param item The track the end of track timer was scheduled for
+     */
+    private void onEndOfTrack(PlaybackQueueItem item) {
+        synchronized (clockLock) {
+            // The timer might have fired just before being cancelled because of a track change
+            if (!clockRunning || !item.equals(playerStatus.getCurrentPlaylistItem())) {
+                return;
+            }
+            endOfTrackTask = null;
+        }
+        reportTrackAsPlayed(item);
+        playingTrack = null;
+        if (playerStatus.getPlaybackQueueMode().equals(PlaybackQueueMode.QUEUE_REPEAT_SHUFFLE)) {
+            // The queue isn't reordered, so controllers don't have to fetch it again when a new round starts
+            playerStatus.setPlaybackQueuePos(nextShuffledPosition());
+            playerStatus.setSeekPos(0.0);
+            play();
+            return;
+        }
+
+        synchronized (shuffleLock) {
+            // Start a new order the next time shuffle repeat mode is used
+            shuffleOrder = null;
+            shufflePositions = null;
+        }
+        if (playerStatus.getPlaybackQueuePos() != null && playerStatus.getPlaybackQueuePos() < playerStatus.getPlaybackQueue().getItems().size() - 1) {
+            playerStatus.setPlaybackQueuePos(playerStatus.getPlaybackQueuePos() + 1);
+            playerStatus.setSeekPos(0.0);
+            play();
+        } else {
+            stopClock();
+            playerStatus.setPlaybackQueuePos(0);
+            playerStatus.setSeekPos(0.0);
+            setSeekPosition(0.0);
+            if (playerStatus.getPlaybackQueueMode().equals(PlaybackQueueMode.QUEUE)) {
+                pause();
+            } else {
+                play();
+            }
+        }
+    }
+
     public StreamingReference retrieveItemStreamingRef(String trackId) {
         String service = trackId.substring(0, trackId.indexOf(":"));
-        Preferences preferences = Preferences.userNodeForPackage(this.getClass());
-        String cloudCoreUrl = preferences.get("cloudCoreUrl", CoreServiceFactory.getCoreServiceEndpoint());
-        String accessToken = preferences.get("accessToken", null);
+        String accessToken = configuration.get("accessToken", null);
 
-        // Get a client class for the Content service
-        ContentService contentService = ContentServiceFactory.getContentService(service, cloudCoreUrl, accessToken);
+        // Get a client class for the Content service, it's only created the first time the service is used
+        ContentService contentService = serviceClients.getContentService(service, getCloudCoreUrl(), accessToken);
         if (contentService != null) {
             try {
                 return contentService.getItemStreamingRef(new GetItemStreamingRefRequest(trackId), 15000);
@@ -384,10 +646,7 @@ public class DummyPlayerManager implements PlayerManager {
 
     @Override
     public Boolean pause() {
-        if (playingProgressTimer != null) {
-            playingProgressTimer.cancel();
-        }
-        playingProgressTimer = null;
+        stopClock();
         playerStatus.setSeekPos(getSeekPosition());
         playerStatus.setPlaying(false);
         if (playingTrack != null) {
@@ -414,11 +673,23 @@ public class DummyPlayerManager implements PlayerManager {
 
     @Override
     public Double getSeekPosition() {
-        return seekPosition;
+        synchronized (clockLock) {
+            if (clockRunning) {
+                return seekAnchor + (System.nanoTime() - seekAnchorNanos) / 1000000000.0;
+            } else {
+                return seekAnchor;
+            }
+        }
     }
 
     @Override
     public void setSeekPosition(Double seekPos) {
-        this.seekPosition = seekPos;
+        synchronized (clockLock) {
+            seekAnchor = seekPos != null ? seekPos : 0.0;
+            seekAnchorNanos = System.nanoTime();
+            if (clockRunning) {
+                scheduleEndOfTrack();
+            }
+        }
     }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Scheduler shared by all players in the process for playback progress, end of track detection and automatic
+ * advance to the next track, so the number of threads is the same regardless of how many players exist or how
+ * often tracks are changed.
+ * <p/>
+ * Tasks run on a small fixed pool of daemon threads and should not block for long, since that delays the playback
+ * of all other players.
+ */
+public final class PlaybackScheduler {
+    /**
+     * Number of threads in the shared pool
+     */
+    private static final int THREADS = 2;
+
+    private static ScheduledThreadPoolExecutor executor;
+
+    private PlaybackScheduler() {
+    }
+
+    /**
+     * Get the shared scheduler, it's created the first time it's needed and lives as long as the process
+     *
+     * @return The shared scheduler
+     */
+    public static synchronized ScheduledExecutorService get() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "playback-scheduler-" + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // Cancelled tasks are removed immediately, so frequent track changes don't fill up the queue
+            executor.setRemoveOnCancelPolicy(true);
+        }
+        return executor;
+    }
+}
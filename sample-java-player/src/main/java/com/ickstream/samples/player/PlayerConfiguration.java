@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Player settings held as an immutable in-memory snapshot on top of a {@link Preferences} node.
+ * <p/>
+ * Reads never touch the backing store and don't take any lock. Changes replace the snapshot immediately and are
+ * written to the backing store in batches a short while later, {@link #flush()} writes any pending changes directly
+ * and should be called before the process exits.
+ */
+public class PlayerConfiguration {
+    /**
+     * Time to wait for more changes before writing them to the backing store
+     */
+    private static final long FLUSH_DELAY_MS = 500;
+
+    /**
+     * Single thread shared by all configurations which writes changes to the backing stores
+     */
+    private static ScheduledExecutorService flushExecutor;
+
+    private final Preferences preferences;
+    private volatile Map<String, String> snapshot;
+
+    /**
+     * Changes not yet written to the backing store, a null value means that the setting has been removed
+     */
+    private final Map<String, String> pendingChanges = new LinkedHashMap<String, String>();
+    private ScheduledFuture<?> pendingFlush;
+
+    /**
+     * Creates a configuration and reads all current settings from the specified preferences node
+     *
+     * @param preferences The backing store
+     */
+    public PlayerConfiguration(Preferences preferences) {
+        this.preferences = preferences;
+        Map<String, String> values = new HashMap<String, String>();
+        try {
+            for (String key : preferences.keys()) {
+                String value = preferences.get(key, null);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        } catch (BackingStoreException e) {
+            e.printStackTrace();
+        }
+        this.snapshot = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Get a setting
+     *
+     * @param key          The name of the setting
+     * @param defaultValue Value returned if the setting doesn't exist
+     * @return The value of the setting
+     */
+    public String get(String key, String defaultValue) {
+        String value = snapshot.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Set a setting
+     *
+     * @param key   The name of the setting
+     * @param value The new value, null removes the setting
+     */
+    public void put(String key, String value) {
+        update(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * Remove a setting
+     *
+     * @param key The name of the setting
+     */
+    public void remove(String key) {
+        put(key, null);
+    }
+
+    /**
+     * Change several settings at once, readers either see all or none of the changes
+     *
+     * @param changes The settings to change, settings with a null value are removed
+     */
+    public synchronized void update(Map<String, String> changes) {
+        Map<String, String> values = new HashMap<String, String>(snapshot);
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            if (entry.getValue() != null) {
+                values.put(entry.getKey(), entry.getValue());
+            } else {
+                values.remove(entry.getKey());
+            }
+            pendingChanges.put(entry.getKey(), entry.getValue());
+        }
+        snapshot = Collections.unmodifiableMap(values);
+        if (pendingFlush == null) {
+            pendingFlush = getFlushExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write all pending changes to the backing store and wait until they have been stored
+     */
+    public synchronized void flush() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : pendingChanges.entrySet()) {
+            if (entry.getValue() != null) {
+                preferences.put(entry.getKey(), entry.getValue());
+            } else {
+                preferences.remove(entry.getKey());
+            }
+        }
+        pendingChanges.clear();
+        try {
+            preferences.flush();
+        } catch (BackingStoreException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getFlushExecutor() {
+        if (flushExecutor == null) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "configuration-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return flushExecutor;
+    }
+}
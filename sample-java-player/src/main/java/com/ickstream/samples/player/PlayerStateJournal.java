@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import com.ickstream.common.jsonrpc.JsonHelper;
+import com.ickstream.player.model.PlaybackQueue;
+import com.ickstream.player.model.PlaybackQueueItemInstance;
+import com.ickstream.player.model.PlaybackQueueStorage;
+import com.ickstream.player.model.PlayerStatus;
+import com.ickstream.player.model.PlayerStatusStorage;
+import com.ickstream.protocol.service.player.PlaybackQueueMode;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent storage of the player status and playback queue in an append-only journal file.
+ * <p/>
+ * Changes reported through the storage interfaces only mark the status or queue as changed, a background thread
+ * writes a snapshot of the latest state a short while later, so several changes in a row only result in one write
+ * and command handling never waits for the disk. Each record is protected by a checksum, after a crash the journal
+ * is read up to the last complete record. When the journal has grown to several times the size of the latest
+ * snapshots it's compacted into a new file with only the latest snapshots.
+ */
+public class PlayerStateJournal {
+    private static final byte TYPE_STATUS = 'S';
+    private static final byte TYPE_QUEUE = 'Q';
+
+    /**
+     * Time to wait for more changes before writing a snapshot
+     */
+    private static final long WRITE_DELAY_MS = 200;
+
+    /**
+     * The journal is compacted when it's larger than this many times the size of the latest snapshots
+     */
+    private static final int COMPACT_FACTOR = 4;
+
+    /**
+     * The journal is never compacted when it's smaller than this
+     */
+    private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+
+    /**
+     * Snapshot of the player status as stored in the journal
+     */
+    public static class StatusRecord {
+        private Integer playbackQueuePos;
+        private Double seekPos;
+        private Double volumeLevel;
+        private Boolean muted;
+        private PlaybackQueueMode playbackQueueMode;
+
+        public Integer getPlaybackQueuePos() {
+            return playbackQueuePos;
+        }
+
+        public void setPlaybackQueuePos(Integer playbackQueuePos) {
+            this.playbackQueuePos = playbackQueuePos;
+        }
+
+        public Double getSeekPos() {
+            return seekPos;
+        }
+
+        public void setSeekPos(Double seekPos) {
+            this.seekPos = seekPos;
+        }
+
+        public Double getVolumeLevel() {
+            return volumeLevel;
+        }
+
+        public void setVolumeLevel(Double volumeLevel) {
+            this.volumeLevel = volumeLevel;
+        }
+
+        public Boolean getMuted() {
+            return muted;
+        }
+
+        public void setMuted(Boolean muted) {
+            this.muted = muted;
+        }
+
+        public PlaybackQueueMode getPlaybackQueueMode() {
+            return playbackQueueMode;
+        }
+
+        public void setPlaybackQueueMode(PlaybackQueueMode playbackQueueMode) {
+            this.playbackQueueMode = playbackQueueMode;
+        }
+    }
+
+    /**
+     * Snapshot of the playback queue as stored in the journal
+     */
+    public static class QueueRecord {
+        private String id;
+        private String name;
+        private List<PlaybackQueueItemInstance> items;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<PlaybackQueueItemInstance> getItems() {
+            return items;
+        }
+
+        public void setItems(List<PlaybackQueueItemInstance> items) {
+            this.items = items;
+        }
+    }
+
+    private final File file;
+    private final Object syncObject;
+    private final JsonHelper jsonHelper = new JsonHelper();
+    private final ScheduledExecutorService writer;
+
+    /**
+     * Lock for the journal file, separate from the lock of the changed state so the storage interfaces are never
+     * blocked by disk writes
+     */
+    private final Object fileLock = new Object();
+    private FileChannel channel;
+    private byte[] lastStatus;
+    private byte[] lastQueue;
+
+    private PlayerStatus changedStatus;
+    private PlaybackQueue changedQueue;
+    private boolean writeScheduled = false;
+    private boolean restoring = false;
+
+    private final PlayerStatusStorage playerStatusStorage = new PlayerStatusStorage() {
+        @Override
+        public void store(PlayerStatus status) {
+            synchronized (PlayerStateJournal.this) {
+                if (!restoring) {
+                    changedStatus = status;
+                    scheduleWrite();
+                }
+            }
+        }
+    };
+
+    private final PlaybackQueueStorage playbackQueueStorage = new PlaybackQueueStorage() {
+        @Override
+        public void store(PlaybackQueue playbackQueue) {
+            synchronized (PlayerStateJournal.this) {
+                if (!restoring) {
+                    changedQueue = playbackQueue;
+                    scheduleWrite();
+                }
+            }
+        }
+    };
+
+    /**
+     * Creates a journal
+     *
+     * @param file       The journal file
+     * @param syncObject Object which is locked while the player status and playback queue are modified
+     */
+    public PlayerStateJournal(File file, Object syncObject) {
+        this.file = file;
+        this.syncObject = syncObject;
+        this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "player-state-journal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public PlayerStatusStorage getPlayerStatusStorage() {
+        return playerStatusStorage;
+    }
+
+    public PlaybackQueueStorage getPlaybackQueueStorage() {
+        return playbackQueueStorage;
+    }
+
+    /**
+     * Restore the latest stored player status and playback queue, playback is always restored as paused
+     *
+     * @param playerStatus The player status to restore into
+     */
+    public void restore(PlayerStatus playerStatus) {
+        if (file.exists()) {
+            readJournal();
+        }
+        synchronized (this) {
+            restoring = true;
+        }
+        try {
+            synchronized (syncObject) {
+                if (lastQueue != null) {
+                    QueueRecord queue = jsonHelper.stringToObject(decode(lastQueue), QueueRecord.class);
+                    if (queue != null) {
+                        playerStatus.getPlaybackQueue().setId(queue.getId());
+                        playerStatus.getPlaybackQueue().setName(queue.getName());
+                        if (queue.getItems() != null) {
+                            playerStatus.getPlaybackQueue().setItems(queue.getItems());
+                        }
+                    }
+                }
+                if (lastStatus != null) {
+                    StatusRecord status = jsonHelper.stringToObject(decode(lastStatus), StatusRecord.class);
+                    if (status != null) {
+                        playerStatus.setPlaying(false);
+                        playerStatus.setPlaybackQueuePos(status.getPlaybackQueuePos());
+                        playerStatus.setSeekPos(status.getSeekPos());
+                        if (status.getVolumeLevel() != null) {
+                            playerStatus.setVolumeLevel(status.getVolumeLevel());
+                        }
+                        if (status.getMuted() != null) {
+                            playerStatus.setMuted(status.getMuted());
+                        }
+                        if (status.getPlaybackQueueMode() != null) {
+                            playerStatus.setPlaybackQueueMode(status.getPlaybackQueueMode());
+                        }
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                restoring = false;
+            }
+        }
+    }
+
+    /**
+     * Write any pending changes and close the journal
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Make sure changes made after the writer stopped aren't lost either
+        writeChanges();
+        synchronized (fileLock) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Schedule a write of the changed state unless one is already scheduled, must be called while holding the lock
+     */
+    private void scheduleWrite() {
+        if (!writeScheduled && !writer.isShutdown()) {
+            writeScheduled = true;
+            writer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    writeChanges();
+                }
+            }, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void writeChanges() {
+        PlayerStatus status;
+        PlaybackQueue queue;
+        synchronized (this) {
+            status = changedStatus;
+            queue = changedQueue;
+            changedStatus = null;
+            changedQueue = null;
+            writeScheduled = false;
+        }
+        if (status == null && queue == null) {
+            return;
+        }
+
+        // Only copy the state while holding the lock, serializing large queues is done without blocking commands
+        StatusRecord statusRecord = null;
+        QueueRecord queueRecord = null;
+        synchronized (syncObject) {
+            if (status != null) {
+                statusRecord = new StatusRecord();
+                statusRecord.setPlaybackQueuePos(status.getPlaybackQueuePos());
+                statusRecord.setSeekPos(status.getSeekPos());
+                statusRecord.setVolumeLevel(status.getVolumeLevel());
+                statusRecord.setMuted(status.getMuted());
+                statusRecord.setPlaybackQueueMode(status.getPlaybackQueueMode());
+            }
+            if (queue != null) {
+                queueRecord = new QueueRecord();
+                queueRecord.setId(queue.getId());
+                queueRecord.setName(queue.getName());
+                queueRecord.setItems(new ArrayList<PlaybackQueueItemInstance>(queue.getItems()));
+            }
+        }
+
+        synchronized (fileLock) {
+            try {
+                if (queueRecord != null) {
+                    lastQueue = encode(jsonHelper.objectToString(queueRecord));
+                    append(TYPE_QUEUE, lastQueue);
+                }
+                if (statusRecord != null) {
+                    lastStatus = encode(jsonHelper.objectToString(statusRecord));
+                    append(TYPE_STATUS, lastStatus);
+                }
+                channel.force(false);
+                long snapshotSize = (lastQueue != null ? lastQueue.length : 0) + (lastStatus != null ? lastStatus.length : 0);
+                if (channel.size() > Math.max(MIN_COMPACT_SIZE, COMPACT_FACTOR * snapshotSize)) {
+                    compact();
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write player state journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Append a record: length, CRC32 of the type and data, type and data. Must be called while holding the file lock
+     */
+    private void append(byte type, byte[] data) throws IOException {
+        if (channel == null) {
+            file.getParentFile().mkdirs();
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            channel = randomAccessFile.getChannel();
+            channel.position(channel.size());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(13 + data.length);
+        buffer.putInt(data.length);
+        buffer.putLong(checksum(type, data));
+        buffer.put(type);
+        buffer.put(data);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Replace the journal with a new file which only contains the latest snapshots, the new file is completely
+     * written before it replaces the old one. Must be called while holding the file lock
+     */
+    private void compact() throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            FileChannel tmpChannel = out.getChannel();
+            for (int i = 0; i < 2; i++) {
+                byte type = i == 0 ? TYPE_QUEUE : TYPE_STATUS;
+                byte[] data = i == 0 ? lastQueue : lastStatus;
+                if (data != null) {
+                    ByteBuffer buffer = ByteBuffer.allocate(13 + data.length);
+                    buffer.putInt(data.length);
+                    buffer.putLong(checksum(type, data));
+                    buffer.put(type);
+                    buffer.put(data);
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        tmpChannel.write(buffer);
+                    }
+                }
+            }
+            tmpChannel.force(true);
+        } finally {
+            out.close();
+        }
+        channel.close();
+        channel = null;
+        if (!tmpFile.renameTo(file)) {
+            // Some platforms can't rename onto an existing file
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Read the journal and keep the latest valid snapshots, reading stops at the first incomplete or corrupt record
+     * which is where a write was interrupted by a crash
+     */
+    private void readJournal() {
+        long validLength = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                int length = in.readInt();
+                long crc = in.readLong();
+                byte type = in.readByte();
+                if (length < 0 || length > file.length()) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                if (checksum(type, data) != crc) {
+                    break;
+                }
+                if (type == TYPE_QUEUE) {
+                    lastQueue = data;
+                } else if (type == TYPE_STATUS) {
+                    lastStatus = data;
+                }
+                validLength += 13 + length;
+            }
+        } catch (EOFException e) {
+            // End of journal, possibly in the middle of a record
+        } catch (IOException e) {
+            System.err.println("Failed to read player state journal: " + e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+
+        // Cut off any partial record so new records are appended after the last valid one
+        if (validLength < file.length()) {
+            try {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                try {
+                    randomAccessFile.setLength(validLength);
+                } finally {
+                    randomAccessFile.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to truncate player state journal: " + e.getMessage());
+            }
+        }
+    }
+
+    private static long checksum(byte type, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] encode(String value) throws IOException {
+        return value.getBytes("UTF-8");
+    }
+
+    private static String decode(byte[] value) {
+        try {
+            return new String(value, "UTF-8");
+        } catch (IOException e) {
+            // All platforms we support are going to support UTF-8
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -47,8 +47,9 @@ import com.ickstream.protocol.service.content.DeviceContentService;
 import com.ickstream.protocol.service.core.*;
 import com.ickstream.protocol.service.player.PlayerService;
 import com.ickstream.protocol.service.scrobble.ScrobbleService;
-import com.ickstream.protocol.service.scrobble.ScrobbleServiceFactory;
+import com.ickstream.samples.common.SortedIndex;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
 import java.util.prefs.BackingStoreException;
@@ -64,21 +65,56 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
      */
     private static final String API_KEY = "474C55EA-C46C-4333-921B-559D87D2A679";
 
+    /**
+     * Played tracks not yet reported to the scrobble service
+     */
+    private static final File SCROBBLE_OUTBOX_FILE = new File(System.getProperty("user.home"), ".ickstream/sample-player-scrobbles.jsonl");
+
+    /**
+     * Player status and playback queue from the previous run
+     */
+    private static final File STATE_JOURNAL_FILE = new File(System.getProperty("user.home"), ".ickstream/sample-player-state.journal");
+
     /**
      * Services discovered (both online and local)
      */
     private final Map<String, Service> availableServices = new HashMap<String, Service>();
 
+    /**
+     * Services discovered sorted by name, used by the status display
+     */
+    private final SortedIndex<Service> sortedServices = new SortedIndex<Service>();
+
+    /**
+     * Persistent storage of player status and playback queue, null if they aren't stored
+     */
+    private PlayerStateJournal stateJournal;
+
+    /**
+     * Cached urls of local and online services used to resolve service:// urls
+     */
+    private final ServiceUrlResolver serviceUrls = new ServiceUrlResolver();
+
+    /**
+     * Cloud Core, scrobble and content service clients, shared with the player manager so they are only created once
+     */
+    private final ServiceClientRegistry serviceClients = new ServiceClientRegistry(null);
+
     /**
      * Storage of settings
      */
-    private final Preferences preferences = Preferences.userNodeForPackage(SamplePlayer.class);
+    private final PlayerConfiguration configuration;
 
     /**
      * ickStream P2P implementation
      */
     private IckP2p ickP2p = null;
 
+    /**
+     * true if the Cloud Core service shouldn't be used, the player then always runs as unregistered
+     */
+    private final boolean offline;
+
     /**
      * Dummy player manager that simulates playback but never outputs any sound
      */
@@ -98,13 +134,30 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
      * Dummy object which we use to handle synchronization to make the code thread safe without having to
      * synchronize whole methods
      */
-    private static final Object syncObject = new Object();
+    private final Object syncObject = new Object();
 
     /**
      * User interface that displays a status display
      */
     private final StatusDisplay statusDisplay = new StatusDisplay(syncObject);
 
+    public SamplePlayer() {
+        this(null, Preferences.userNodeForPackage(SamplePlayer.class));
+    }
+
+    /**
+     * Create a player which uses the specified ickStream P2P implementation instead of the native one and doesn't
+     * access the Cloud Core service, used to run several players in the same process without network
+     *
+     * @param ickP2p      The ickStream P2P implementation to use, or null to use the native one and the Cloud Core service
+     * @param preferences Storage of settings, each player in the same process needs its own node
+     */
+    public SamplePlayer(IckP2p ickP2p, Preferences preferences) {
+        this.ickP2p = ickP2p;
+        this.offline = ickP2p != null;
+        this.configuration = new PlayerConfiguration(preferences);
+    }
+
     /**
      * Dummy main which just launch the {@link #run()} method
      *
@@ -120,12 +173,33 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
      * This is where everything happens
      */
     public void run() throws BackingStoreException, InterruptedException {
+        if (!start()) {
+            return;
+        }
+
+        // Open status display
+        statusDisplay.start(playerManager, playerStatus, sortedServices, 1000);
+
+        // Wait for exit command
+        statusDisplay.waitForExit();
+
+        // Remove refresh timers and shutdown ickStream P2P module
+        shutdown();
+    }
+
+    /**
+     * Authenticate towards the Cloud Core service if the player is registered and start announcing the player on
+     * the local network, no user interface is shown
+     *
+     * @return true if the startup was successful
+     */
+    public boolean start() {
         // Get previously used device access token from preferences
-        String cloudCoreUrl = preferences.get("cloudCoreUrl", CoreServiceFactory.getCoreServiceEndpoint());
-        String accessToken = preferences.get("accessToken", null);
+        String cloudCoreUrl = configuration.get("cloudCoreUrl", CoreServiceFactory.getCoreServiceEndpoint());
+        String accessToken = offline ? null : configuration.get("accessToken", null);
 
         // Detect IP address of current device
-        String ipAddress = NetworkAddressHelper.getNetworkAddress();
+        String ipAddress = offline ? "127.0.0.1" : NetworkAddressHelper.getNetworkAddress();
 
         // Scrobble service
         ScrobbleService scrobbleService = null;
@@ -133,7 +207,7 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
         DeviceResponse device = null;
         if (accessToken != null) {
             // Get a client class for the Cloud Core service
-            CoreService coreService = CoreServiceFactory.getCoreService(cloudCoreUrl, accessToken);
+            CoreService coreService = serviceClients.getCoreService(cloudCoreUrl, accessToken);
 
             // Update the IP address in the cloud server, this is done for two reasons:
             // - We want to ensure we have a valid device access token, if we don't this call will fail
@@ -146,36 +220,35 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
 
                 // If userId doesn't already exist, request userId, this is code to upgrade player if registered before
                 // addDevice returned a userId
-                if (preferences.get("userId", null) == null) {
+                if (configuration.get("userId", null) == null) {
                     GetUserResponse user = coreService.getUser();
                     if (user != null) {
-                        preferences.put("userId", user.getId());
-                        try {
-                            preferences.flush();
-                        } catch (BackingStoreException e) {
-                            e.printStackTrace();
-                        }
+                        configuration.put("userId", user.getId());
                     }
                 }
 
                 // Get reference to scrobbling service
-                scrobbleService = ScrobbleServiceFactory.getScrobbleService(cloudCoreUrl, accessToken);
+                scrobbleService = serviceClients.getScrobbleService(cloudCoreUrl, accessToken);
+
+                // Keep the urls of online services up to date so service:// urls can be resolved for them too
+                serviceUrls.setCoreService(coreService);
 
                 // Print information about current device
                 System.out.println("Current device registered as: " + device.getName() + " (" + device.getId() + ")");
                 System.out.println("Using access token: " + accessToken);
             } catch (UnauthorizedException e) {
                 System.out.println("Unauthorized access, probably an invalid access token, continue as unregistered");
-                preferences.remove("accessToken");
+                configuration.remove("accessToken");
+                serviceClients.clear();
                 accessToken = null;
             } catch (ServiceException e) {
                 System.err.println("Can't reach the Cloud Core service");
-                return;
+                return false;
             } catch (ServiceTimeoutException e) {
                 System.err.println("Can't reach the Cloud Core service within specified timeout");
-                return;
+                return false;
             }
-        } else {
+        } else if (!offline) {
             System.out.println("Current device not yet registered");
         }
 
@@ -206,41 +279,51 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
             }
         });
 
-        // Setup player status storage manager
-        PlayerStatusStorage playerStatusStorage = new PlayerStatusStorage() {
-            @Override
-            public void store(PlayerStatus status) {
-                // Do nothing in this sample player
-                // Normally we would write the status to a persistent storage at this point
-            }
-        };
-
-        // Setup playback queue storage manager
-        PlaybackQueueStorage playbackQueueStorage = new PlaybackQueueStorage() {
-            @Override
-            public void store(PlaybackQueue playbackQueue) {
-                // Do nothing in this sample player
-                // Normally we would write the playback queue to a persistent storage at this point
-            }
-        };
+        PlayerStatusStorage playerStatusStorage;
+        PlaybackQueueStorage playbackQueueStorage;
+        if (!offline) {
+            // Player status and playback queue are written to a journal and restored from it on the next start
+            stateJournal = new PlayerStateJournal(STATE_JOURNAL_FILE, syncObject);
+            playerStatusStorage = stateJournal.getPlayerStatusStorage();
+            playbackQueueStorage = stateJournal.getPlaybackQueueStorage();
+        } else {
+            // Several players in the same process can't share the journal, so these aren't persistent
+            playerStatusStorage = new PlayerStatusStorage() {
+                @Override
+                public void store(PlayerStatus status) {
+                }
+            };
+            playbackQueueStorage = new PlaybackQueueStorage() {
+                @Override
+                public void store(PlaybackQueue playbackQueue) {
+                }
+            };
+        }
 
-        // Just create a non persistent player status object
-        // Normally player status and playback queue would be read from a persistent storage at this point
         playerStatus = new PlayerStatus(new PlaybackQueue(playbackQueueStorage));
         playerStatus.setStorage(playerStatusStorage);
+        if (stateJournal != null) {
+            stateJournal.restore(playerStatus);
+        }
 
-        playerManager = new DummyPlayerManager(NetworkAddressHelper.getNetworkHardwareAddress(), playerStatus, notificationSender, scrobbleService, null, this, syncObject);
+        String hardwareId = offline ? null : NetworkAddressHelper.getNetworkHardwareAddress();
+        playerManager = new DummyPlayerManager(hardwareId, playerStatus, notificationSender, scrobbleService, null, this, syncObject, configuration, new ScrobbleOutbox(offline ? null : SCROBBLE_OUTBOX_FILE), serviceClients);
+        playerManager.setServiceUrlResolver(serviceUrls);
         if (device != null) {
             playerManager.setName(device.getName());
             playerManager.setId(device.getId());
         } else if (playerManager.getName() == null) {
             playerManager.setName("Sample Player");
             playerManager.setId(UUID.randomUUID().toString().toUpperCase());
+        } else if (offline) {
+            playerManager.setId(UUID.randomUUID().toString().toUpperCase());
         }
         playerService = new PlayerCommandService(API_KEY, playerManager, playerStatus, syncObject);
 
         // Setup ickStream P2P module and announce the current device on the network
-        ickP2p = new IckP2pJNI();
+        if (ickP2p == null) {
+            ickP2p = new IckP2pJNI();
+        }
         // Setup device listener so we get information about new, updated, removed devices on local network
         ickP2p.addDiscoveryListener(this);
         // Setup message listener so we can receive messages from other devices on local network
@@ -260,21 +343,11 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
             ickP2p.addInterface(ipAddress, null);
             // Start the discovery
             ickP2p.resume();
-
-            // Open status display
-            statusDisplay.start(playerManager, playerStatus, availableServices, 1000);
-
-            // Wait for exit command
-            statusDisplay.waitForExit();
-
-            // Remove refresh timers
-            playerManager.shutdown();
-
-            // Shutdown ickStream P2P module
-            shutdown();
+            return true;
         } catch (IckP2pException e) {
             System.err.println("Failed to initialize ickP2p");
             e.printStackTrace();
+            return false;
         }
     }
 
@@ -282,10 +355,25 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
     /**
      * Shutdown everything
      */
-    private void shutdown() {
+    public void shutdown() {
         // Stop display
         statusDisplay.shutdown();
 
+        // Remove refresh timers
+        if (playerManager != null) {
+            playerManager.shutdown();
+        }
+        serviceUrls.shutdown();
+
+        // Write the latest player status and playback queue
+        if (stateJournal != null) {
+            stateJournal.shutdown();
+            stateJournal = null;
+        }
+
+        // Write any settings changes which haven't been stored yet
+        configuration.flush();
+
         // Stop ickStream P2P if it has been started
         if (ickP2p != null) {
             System.out.println("Shutting down...");
@@ -314,6 +402,7 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
 
             synchronized (syncObject) {
                 availableServices.put(event.getDeviceId(), service);
+                sortedServices.put(event.getDeviceId(), service.getName(), service);
             }
 
             // Request additional information about the service
@@ -322,7 +411,9 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
             // Remove the device from the service list in case it previously reported to offer a service
             synchronized (syncObject) {
                 availableServices.remove(event.getDeviceId());
+                sortedServices.remove(event.getDeviceId());
             }
+            serviceUrls.removeLocalService(event.getDeviceId());
         }
 
         // Refresh the console user interface
@@ -340,7 +431,9 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
         // Ensure thread safety as this callback can come from multiple parallel threads
         synchronized (syncObject) {
             availableServices.remove(deviceId);
+            sortedServices.remove(deviceId);
         }
+        serviceUrls.removeLocalService(deviceId);
         // Refresh the console user interface
         statusDisplay.refresh();
     }
@@ -372,6 +465,9 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
                 synchronized (syncObject) {
                     service.setServiceInformation(serviceInformation);
                 }
+                if (!service.isOnlineService()) {
+                    serviceUrls.setLocalServiceUrl(service.getId(), serviceInformation.getServiceUrl());
+                }
                 statusDisplay.refresh();
             }
 
@@ -453,14 +549,6 @@ public class SamplePlayer extends DiscoveryAdapter implements MessageListener, S
      */
     @Override
     public String getServiceUrl(String service) {
-        // TODO: This should be extended to also handle online services but currently service:// urls only exists for local services
-        Service serviceObj;
-        synchronized (syncObject) {
-            serviceObj = availableServices.get(service);
-        }
-        if (serviceObj != null && serviceObj.getServiceInformation() != null) {
-            return serviceObj.getServiceInformation().getServiceUrl();
-        }
-        return null;
+        return serviceUrls.getServiceUrl(service);
     }
 }
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import com.ickstream.common.jsonrpc.JsonHelper;
+import com.ickstream.protocol.common.exception.ServiceException;
+import com.ickstream.protocol.common.exception.ServiceTimeoutException;
+import com.ickstream.protocol.service.scrobble.PlayedItem;
+import com.ickstream.protocol.service.scrobble.ScrobbleService;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of played tracks waiting to be reported to the scrobble service.
+ * <p/>
+ * {@link #add} only queues the track and returns, the outbox file is written by a background writer thread so the
+ * playback thread never waits for the disk. Another background thread sends the queued tracks in batches and retries
+ * with increasing delay when the scrobble service can't be reached. Tracks are only removed from the outbox file
+ * after they have been accepted, so they survive restarts and periods without a scrobble service.
+ */
+public class ScrobbleOutbox {
+    /**
+     * Maximum number of tracks sent in one batch before the outbox file is compacted
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Delay before the first retry after a failure, doubled for each following failure
+     */
+    private static final long MIN_RETRY_DELAY_MS = 5000;
+
+    /**
+     * Maximum delay between retries
+     */
+    private static final long MAX_RETRY_DELAY_MS = 300000;
+
+    /**
+     * Maximum time to wait for queued writes to the outbox file when shutting down
+     */
+    private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+    private final File file;
+    private final JsonHelper jsonHelper = new JsonHelper();
+
+    /**
+     * Tracks not yet accepted by the scrobble service, in the same order as in the outbox file
+     */
+    private final LinkedList<String> pending = new LinkedList<String>();
+    private ScrobbleService scrobbleService;
+    private Thread sender;
+    private boolean stopped = false;
+
+    /**
+     * Performs all writes to the outbox file in the order they were requested, null if there is no outbox file
+     */
+    private final ExecutorService fileWriter;
+
+    /**
+     * true if a rewrite of the outbox file has been queued but not yet started, guarded by this
+     */
+    private boolean rewriteQueued = false;
+
+    /**
+     * Creates an outbox, tracks left in the outbox file from a previous run are queued again
+     *
+     * @param file The outbox file, or null if queued tracks don't need to survive a restart
+     */
+    public ScrobbleOutbox(File file) {
+        this.file = file;
+        if (file != null && file.exists()) {
+            readFile();
+            // Get rid of any partially written last line, otherwise the next append would be glued onto it
+            writeFile(new ArrayList<String>(pending));
+        }
+        if (file != null) {
+            fileWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "scrobble-outbox-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            fileWriter = null;
+        }
+    }
+
+    /**
+     * Set the scrobble service to send to, queued tracks are kept until a service is set
+     *
+     * @param scrobbleService The scrobble service, or null if the player isn't registered
+     */
+    public synchronized void setScrobbleService(ScrobbleService scrobbleService) {
+        this.scrobbleService = scrobbleService;
+        startSender();
+        notifyAll();
+    }
+
+    /**
+     * Queue a played track, this method doesn't do any I/O, the track is appended to the outbox file by the
+     * writer thread
+     *
+     * @param playedItem The played track
+     */
+    public void add(PlayedItem playedItem) {
+        final String line = jsonHelper.objectToString(playedItem);
+        if (line == null) {
+            return;
+        }
+        synchronized (this) {
+            pending.add(line);
+            // Queued while holding the lock, so a rewrite which already contains the line always runs after the append
+            if (fileWriter != null && !stopped) {
+                fileWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        appendFile(line);
+                    }
+                });
+            }
+            startSender();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Get the number of tracks not yet accepted by the scrobble service
+     *
+     * @return The number of queued tracks
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Stop sending, tracks not yet sent remain in the outbox file. Waits for queued writes to the outbox file
+     */
+    public void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        if (fileWriter != null) {
+            fileWriter.shutdown();
+            try {
+                fileWriter.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Start the sender thread unless it's already running, must be called while holding the lock
+     */
+    private void startSender() {
+        if (sender == null && !stopped && scrobbleService != null) {
+            sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sendLoop();
+                }
+            }, "scrobble-sender");
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    private void sendLoop() {
+        long retryDelay = MIN_RETRY_DELAY_MS;
+        while (true) {
+            List<String> batch;
+            ScrobbleService service;
+            synchronized (this) {
+                while (!stopped && (pending.isEmpty() || scrobbleService == null)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                batch = new ArrayList<String>(pending.subList(0, Math.min(BATCH_SIZE, pending.size())));
+                service = scrobbleService;
+            }
+
+            int sent = 0;
+            boolean failed = false;
+            for (String line : batch) {
+                PlayedItem playedItem = jsonHelper.stringToObject(line, PlayedItem.class);
+                try {
+                    // Entries which can't be parsed are dropped, retrying them would block the outbox forever
+                    if (playedItem != null) {
+                        service.playedTrack(playedItem);
+                    }
+                    sent++;
+                } catch (ServiceException e) {
+                    System.err.println("Failed to report played track, will retry: " + e.getMessage());
+                    failed = true;
+                    break;
+                } catch (ServiceTimeoutException e) {
+                    System.err.println("Timeout when reporting played track, will retry");
+                    failed = true;
+                    break;
+                }
+            }
+
+            synchronized (this) {
+                for (int i = 0; i < sent; i++) {
+                    pending.removeFirst();
+                }
+                if (sent > 0) {
+                    queueRewrite();
+                }
+                if (failed) {
+                    long retryAt = System.currentTimeMillis() + retryDelay;
+                    long remaining = retryDelay;
+                    while (!stopped && remaining > 0) {
+                        try {
+                            wait(remaining);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        remaining = retryAt - System.currentTimeMillis();
+                    }
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+                } else {
+                    retryDelay = MIN_RETRY_DELAY_MS;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue a rewrite of the outbox file with the tracks still pending, must be called while holding the lock
+     */
+    private void queueRewrite() {
+        if (fileWriter == null || stopped || rewriteQueued) {
+            return;
+        }
+        rewriteQueued = true;
+        fileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<String> lines;
+                synchronized (ScrobbleOutbox.this) {
+                    rewriteQueued = false;
+                    lines = new ArrayList<String>(pending);
+                }
+                writeFile(lines);
+            }
+        });
+    }
+
+    /**
+     * Append a track to the outbox file, only called on the writer thread
+     *
+     * @param line The track to append
+     */
+    private void appendFile(String line) {
+        OutputStream out = null;
+        try {
+            file.getParentFile().mkdirs();
+            FileOutputStream fileOut = new FileOutputStream(file, true);
+            out = fileOut;
+            out.write((line + "\n").getBytes("UTF-8"));
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            System.err.println("Failed to write to scrobble outbox: " + e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Read the outbox file, a partially written last line from an interrupted write is ignored
+     */
+    private void readFile() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0 && jsonHelper.stringToObject(line, PlayedItem.class) != null) {
+                    pending.add(line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read scrobble outbox: " + e.getMessage());
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * Replace the outbox file, the new content is written to a temporary file first so a crash never leaves a
+     * partially written outbox. Only called on the writer thread or before it's started
+     *
+     * @param lines The tracks still pending
+     */
+    private void writeFile(List<String> lines) {
+        if (file == null) {
+            return;
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            for (String line : lines) {
+                out.write((line + "\n").getBytes("UTF-8"));
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                // Some platforms can't rename onto an existing file
+                if (!file.delete() || !tmpFile.renameTo(file)) {
+                    System.err.println("Failed to replace scrobble outbox " + file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write scrobble outbox: " + e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
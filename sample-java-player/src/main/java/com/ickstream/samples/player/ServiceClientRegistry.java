@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import com.ickstream.common.jsonrpc.MessageLogger;
+import com.ickstream.protocol.service.content.ContentService;
+import com.ickstream.protocol.service.content.ContentServiceFactory;
+import com.ickstream.protocol.service.core.CoreService;
+import com.ickstream.protocol.service.core.CoreServiceFactory;
+import com.ickstream.protocol.service.scrobble.ScrobbleService;
+import com.ickstream.protocol.service.scrobble.ScrobbleServiceFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Service clients used by the player, each client is created once and then reused together with its HTTP
+ * connections for as long as the Cloud Core url and access token stay the same.
+ * <p/>
+ * All clients are dropped when a client is requested for another Cloud Core url or access token than the cached
+ * clients were created for, or when {@link #clear()} is called.
+ * <p/>
+ * Content service clients are created without holding the lock, since the factory might have to ask the Cloud Core
+ * service for the service url, so a slow lookup of one service doesn't block the other clients.
+ */
+public class ServiceClientRegistry {
+    private final MessageLogger messageLogger;
+    private String cloudCoreUrl;
+    private String accessToken;
+    private CoreService coreService;
+    private ScrobbleService scrobbleService;
+
+    /**
+     * Content service clients keyed on service identity, replaced with a new map when the clients are dropped so
+     * clients created concurrently for the previous url or access token are never published, guarded by this
+     */
+    private ConcurrentMap<String, ContentService> contentServices = new ConcurrentHashMap<String, ContentService>();
+
+    /**
+     * Creates a registry
+     *
+     * @param messageLogger Logger used by all created clients, or null if messages shouldn't be logged
+     */
+    public ServiceClientRegistry(MessageLogger messageLogger) {
+        this.messageLogger = messageLogger;
+    }
+
+    /**
+     * Get a client for the Cloud Core service
+     *
+     * @param cloudCoreUrl The Cloud Core url
+     * @param accessToken  The device access token
+     * @return The client
+     */
+    public synchronized CoreService getCoreService(String cloudCoreUrl, String accessToken) {
+        validate(cloudCoreUrl, accessToken);
+        if (coreService == null) {
+            coreService = CoreServiceFactory.getCoreService(cloudCoreUrl, accessToken, messageLogger);
+        }
+        return coreService;
+    }
+
+    /**
+     * Get a client for the scrobble service
+     *
+     * @param cloudCoreUrl The Cloud Core url
+     * @param accessToken  The device access token
+     * @return The client
+     */
+    public synchronized ScrobbleService getScrobbleService(String cloudCoreUrl, String accessToken) {
+        validate(cloudCoreUrl, accessToken);
+        if (scrobbleService == null) {
+            scrobbleService = ScrobbleServiceFactory.getScrobbleService(cloudCoreUrl, accessToken, messageLogger);
+        }
+        return scrobbleService;
+    }
+
+    /**
+     * Get a client for a content service
+     *
+     * @param serviceId    The identity of the content service
+     * @param cloudCoreUrl The Cloud Core url
+     * @param accessToken  The device access token
+     * @return The client, or null if the service isn't available
+     */
+    public ContentService getContentService(String serviceId, String cloudCoreUrl, String accessToken) {
+        ConcurrentMap<String, ContentService> clients;
+        synchronized (this) {
+            validate(cloudCoreUrl, accessToken);
+            clients = contentServices;
+        }
+        ContentService contentService = clients.get(serviceId);
+        if (contentService == null) {
+            ContentService created = ContentServiceFactory.getContentService(serviceId, cloudCoreUrl, accessToken);
+            if (created == null) {
+                return null;
+            }
+            // Another thread might have created a client for the same service in the meantime
+            contentService = clients.putIfAbsent(serviceId, created);
+            if (contentService == null) {
+                contentService = created;
+            }
+        }
+        return contentService;
+    }
+
+    /**
+     * Drop all clients, should be called when the access token is revoked or the Cloud Core url is changed
+     */
+    public synchronized void clear() {
+        coreService = null;
+        scrobbleService = null;
+        contentServices = new ConcurrentHashMap<String, ContentService>();
+        cloudCoreUrl = null;
+        accessToken = null;
+    }
+
+    /**
+     * Drop all clients if they were created for another Cloud Core url or access token
+     */
+    private void validate(String cloudCoreUrl, String accessToken) {
+        if (!equals(this.cloudCoreUrl, cloudCoreUrl) || !equals(this.accessToken, accessToken)) {
+            clear();
+            this.cloudCoreUrl = cloudCoreUrl;
+            this.accessToken = accessToken;
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import com.ickstream.protocol.common.exception.ServiceException;
+import com.ickstream.protocol.common.exception.ServiceTimeoutException;
+import com.ickstream.protocol.service.core.CoreService;
+import com.ickstream.protocol.service.core.FindServicesRequest;
+import com.ickstream.protocol.service.core.FindServicesResponse;
+import com.ickstream.protocol.service.core.ServiceResponse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves service:// urls using cached base urls of both local services and online services.
+ * <p/>
+ * Local service urls are added when the service information of a discovered service has been retrieved and removed
+ * when the service disappears from the network. Online service urls are retrieved from the Cloud Core service in
+ * the background, both periodically and when an unknown service is requested. Lookups never block.
+ */
+public class ServiceUrlResolver implements ServiceUrlManager {
+    private static final String SERVICE_SCHEME = "service://";
+
+    /**
+     * Interval between periodic refreshes of the online services
+     */
+    private static final long REFRESH_INTERVAL_MS = 30 * 60 * 1000;
+
+    /**
+     * Minimum time between refreshes caused by requests for unknown services
+     */
+    private static final long MIN_REFRESH_INTERVAL_MS = 60 * 1000;
+
+    /**
+     * Number of online services requested from Cloud Core at a time
+     */
+    private static final int CHUNK_SIZE = 100;
+
+    /**
+     * Maximum number of chunks requested in one refresh, protects against a Cloud Core service which keeps returning
+     * items regardless of the offset
+     */
+    private static final int MAX_CHUNKS = 100;
+
+    private final Map<String, String> localServiceUrls = new ConcurrentHashMap<String, String>();
+    private volatile Map<String, String> onlineServiceUrls = Collections.emptyMap();
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> periodicRefresh;
+    private CoreService coreService;
+    private long lastRefresh;
+
+    /**
+     * Resolve a url which might refer to a service with the service:// scheme, only the service identity is looked
+     * up and the rest of the url is appended as is to the service url
+     *
+     * @param url               The url to resolve
+     * @param serviceUrlManager The manager to look up service urls with
+     * @return The resolved url, the url itself if it isn't a service:// url, or null if the service is unknown
+     */
+    public static String resolve(String url, ServiceUrlManager serviceUrlManager) {
+        if (url == null || !url.startsWith(SERVICE_SCHEME)) {
+            return url;
+        }
+        int end = url.length();
+        for (int i = SERVICE_SCHEME.length(); i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        String serviceUrl = serviceUrlManager.getServiceUrl(url.substring(SERVICE_SCHEME.length(), end));
+        if (serviceUrl == null) {
+            return null;
+        }
+        return end < url.length() ? serviceUrl.concat(url.substring(end)) : serviceUrl;
+    }
+
+    @Override
+    public String getServiceUrl(String service) {
+        String url = localServiceUrls.get(service);
+        if (url == null) {
+            url = onlineServiceUrls.get(service);
+            if (url == null) {
+                refreshOnlineServices();
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Add or replace the url of a service on the local network
+     *
+     * @param service    The service identity
+     * @param serviceUrl The service url, null removes the service
+     */
+    public void setLocalServiceUrl(String service, String serviceUrl) {
+        if (serviceUrl != null) {
+            localServiceUrls.put(service, serviceUrl);
+        } else {
+            localServiceUrls.remove(service);
+        }
+    }
+
+    /**
+     * Remove a service which has left the local network
+     *
+     * @param service The service identity
+     */
+    public void removeLocalService(String service) {
+        localServiceUrls.remove(service);
+    }
+
+    /**
+     * Start refreshing the online services in the background using the specified Cloud Core client
+     *
+     * @param coreService Client for the Cloud Core service, or null to stop refreshing and forget all online services
+     */
+    public synchronized void setCoreService(CoreService coreService) {
+        this.coreService = coreService;
+        if (periodicRefresh != null) {
+            periodicRefresh.cancel(false);
+            periodicRefresh = null;
+        }
+        if (coreService != null) {
+            periodicRefresh = getExecutor().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refreshOnlineServicesNow();
+                }
+            }, 0, REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            lastRefresh = System.currentTimeMillis();
+        } else {
+            onlineServiceUrls = Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Stop all background refreshes
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        periodicRefresh = null;
+    }
+
+    /**
+     * Request a background refresh of the online services unless they were refreshed recently
+     */
+    private synchronized void refreshOnlineServices() {
+        if (coreService == null || executor == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh > MIN_REFRESH_INTERVAL_MS) {
+            lastRefresh = now;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshOnlineServicesNow();
+                }
+            });
+        }
+    }
+
+    private void refreshOnlineServicesNow() {
+        CoreService coreService;
+        synchronized (this) {
+            coreService = this.coreService;
+        }
+        if (coreService == null) {
+            return;
+        }
+        Map<String, String> urls = new HashMap<String, String>();
+        try {
+            int offset = 0;
+            for (int chunk = 0; ; chunk++) {
+                if (chunk == MAX_CHUNKS) {
+                    System.err.println("Stopped retrieving online services after " + offset + " services");
+                    break;
+                }
+                FindServicesRequest request = new FindServicesRequest("content");
+                request.setOffset(offset);
+                request.setCount(CHUNK_SIZE);
+                FindServicesResponse response = coreService.findServices(request);
+                if (response == null || response.getItems() == null || response.getItems().size() == 0) {
+                    break;
+                }
+                for (ServiceResponse service : response.getItems()) {
+                    if (service.getUrl() != null) {
+                        urls.put(service.getId(), service.getUrl());
+                    }
+                }
+                offset += response.getItems().size();
+                if (response.getCountAll() != null) {
+                    if (offset >= response.getCountAll()) {
+                        break;
+                    }
+                } else if (response.getItems().size() < CHUNK_SIZE) {
+                    // Without a total count a short chunk is the last one
+                    break;
+                }
+            }
+        } catch (ServiceException e) {
+            System.err.println("Failed to retrieve online services: " + e.getMessage());
+            return;
+        } catch (ServiceTimeoutException e) {
+            System.err.println("Timeout when retrieving online services");
+            return;
+        }
+        synchronized (this) {
+            // Ignore the result if the client was replaced while refreshing
+            if (coreService == this.coreService) {
+                onlineServiceUrls = Collections.unmodifiableMap(urls);
+            }
+        }
+    }
+
+    private ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "service-url-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
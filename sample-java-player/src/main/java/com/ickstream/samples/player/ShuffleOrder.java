@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import java.util.Random;
+
+/**
+ * Random play order over the positions of a playback queue, kept as a permutation of ints so the queue itself never
+ * has to be reordered.
+ * <p/>
+ * The order is decided lazily with an incremental Fisher-Yates shuffle, each call to {@link #next} only picks one
+ * position among those not yet played in the current round. When all positions have been played a new round starts
+ * without any work up front. Items inserted into or removed from the queue are reflected with {@link #insert} and
+ * {@link #remove}, which keep the order of all other positions.
+ */
+public class ShuffleOrder {
+    /**
+     * Queue positions, order[0..cursor) have been played in this round, order[cursor..decided) have been picked as the
+     * upcoming positions and order[decided..size) haven't been picked yet
+     */
+    private int[] order;
+
+    /**
+     * Index in {@link #order} of each queue position
+     */
+    private int[] indexOf;
+
+    private int size;
+    private int cursor = 0;
+    private int decided = 0;
+    private final Random random;
+
+    /**
+     * Creates a shuffle order where no position has been played yet
+     *
+     * @param size   The number of items in the queue
+     * @param random The random generator to pick positions with
+     */
+    public ShuffleOrder(int size, Random random) {
+        this.random = random;
+        this.size = size;
+        this.order = new int[Math.max(size, 16)];
+        this.indexOf = new int[order.length];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            indexOf[i] = i;
+        }
+    }
+
+    /**
+     * Get the number of positions in the order
+     *
+     * @return The queue size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Move to the next position, a new round is started when all positions have been played
+     *
+     * @return The next queue position, or -1 if the queue is empty
+     */
+    public int next() {
+        if (size == 0) {
+            return -1;
+        }
+        if (cursor == size) {
+            cursor = 0;
+            decided = 0;
+        }
+        decide(cursor);
+        return order[cursor++];
+    }
+
+    /**
+     * Move back to the previously played position in this round
+     *
+     * @return The previous queue position, or -1 if there is no previous position in this round
+     */
+    public int previous() {
+        if (cursor < 2) {
+            return -1;
+        }
+        cursor--;
+        return order[cursor - 1];
+    }
+
+    /**
+     * Get an upcoming position without moving to it, the position will be the one returned by {@link #next} unless
+     * the queue is modified first
+     *
+     * @param offset 0 for the position returned by the next call to {@link #next}, 1 for the one after that and so on
+     * @return The queue position, or -1 if the current round ends before it
+     */
+    public int peek(int offset) {
+        int index = cursor + offset;
+        if (index >= size) {
+            return -1;
+        }
+        decide(index);
+        return order[index];
+    }
+
+    /**
+     * Mark a position as played in this round, used when a position has been played because it was selected directly
+     *
+     * @param position The queue position
+     */
+    public void markPlayed(int position) {
+        if (position < 0 || position >= size) {
+            return;
+        }
+        int index = indexOf[position];
+        if (index < cursor) {
+            return;
+        }
+        if (index >= decided) {
+            swap(index, decided);
+            index = decided++;
+        }
+        // Move it in front of the other picked positions so their order is kept
+        for (; index > cursor; index--) {
+            swap(index, index - 1);
+        }
+        cursor++;
+    }
+
+    /**
+     * Reflect items inserted into the queue, the new positions haven't been played and get random places among the
+     * positions not yet picked
+     *
+     * @param position The queue position of the first inserted item
+     * @param count    The number of inserted items
+     */
+    public void insert(int position, int count) {
+        if (count <= 0) {
+            return;
+        }
+        ensureCapacity(size + count);
+        for (int i = 0; i < size; i++) {
+            if (order[i] >= position) {
+                order[i] += count;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            order[size + i] = position + i;
+        }
+        size += count;
+        rebuildIndex();
+    }
+
+    /**
+     * Reflect items removed from the queue, all other positions keep their place in the order
+     *
+     * @param position The queue position of the first removed item
+     * @param count    The number of removed items
+     */
+    public void remove(int position, int count) {
+        if (count <= 0) {
+            return;
+        }
+        int end = position + count;
+        int to = 0;
+        int newCursor = cursor;
+        int newDecided = decided;
+        for (int i = 0; i < size; i++) {
+            int value = order[i];
+            if (value >= position && value < end) {
+                if (i < cursor) {
+                    newCursor--;
+                }
+                if (i < decided) {
+                    newDecided--;
+                }
+            } else {
+                order[to++] = value >= end ? value - count : value;
+            }
+        }
+        size = to;
+        cursor = newCursor;
+        decided = newDecided;
+        rebuildIndex();
+    }
+
+    /**
+     * Reflect any combination of items added to, removed from and moved within the queue. Kept positions get their
+     * new value without changing place in the order, new positions haven't been played and get random places among
+     * the positions not yet picked
+     *
+     * @param newPositions The new queue position of each current position, or -1 if the item has been removed
+     * @param newSize      The number of items in the queue after the change
+     */
+    public void remap(int[] newPositions, int newSize) {
+        ensureCapacity(newSize);
+        boolean[] kept = new boolean[newSize];
+        int to = 0;
+        int newCursor = cursor;
+        int newDecided = decided;
+        for (int i = 0; i < size; i++) {
+            int value = newPositions[order[i]];
+            if (value < 0) {
+                if (i < cursor) {
+                    newCursor--;
+                }
+                if (i < decided) {
+                    newDecided--;
+                }
+            } else {
+                order[to++] = value;
+                kept[value] = true;
+            }
+        }
+        for (int position = 0; position < newSize; position++) {
+            if (!kept[position]) {
+                order[to++] = position;
+            }
+        }
+        size = to;
+        cursor = newCursor;
+        decided = newDecided;
+        rebuildIndex();
+    }
+
+    /**
+     * Make sure the position at the specified index has been picked
+     */
+    private void decide(int index) {
+        while (decided <= index) {
+            swap(decided, decided + random.nextInt(size - decided));
+            decided++;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int a = order[i];
+        int b = order[j];
+        order[i] = b;
+        order[j] = a;
+        indexOf[b] = i;
+        indexOf[a] = j;
+    }
+
+    private void rebuildIndex() {
+        for (int i = 0; i < size; i++) {
+            indexOf[order[i]] = i;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (order.length < capacity) {
+            int newCapacity = Math.max(capacity, order.length * 2);
+            int[] newOrder = new int[newCapacity];
+            System.arraycopy(order, 0, newOrder, 0, size);
+            order = newOrder;
+            indexOf = new int[newCapacity];
+        }
+    }
+}
@@ -33,19 +33,27 @@ import com.googlecode.lanterna.input.Key;
 import com.googlecode.lanterna.screen.Screen;
 import com.googlecode.lanterna.terminal.Terminal;
 import com.ickstream.player.model.PlayerStatus;
+import com.ickstream.samples.common.SortedIndex;
 
-import java.util.*;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 
 public class StatusDisplay {
     /*
-     * Console screen used for user interface
+     * Console screen used for user interface, only created when the display is started
      */
-    private Screen screen = new Screen(TerminalFacade.createTerminal());
+    private Screen screen;
+
+    /*
+     * Terminal to render to, or null if the system terminal should be used
+     */
+    private final Terminal terminal;
 
     /*
      * Timer which makes sure the screen is refreshed regularly
      */
-    private Timer refreshTimer = new Timer();
+    private Timer refreshTimer = new Timer("status-display", true);
 
     /*
      * Dummy object which we use to handle synchronization to make the code thread safe without having to
@@ -63,17 +71,44 @@ public class StatusDisplay {
      */
     private PlayerStatus playerStatus;
 
-    private Map<String, Service> services;
+    /**
+     * Services sorted by name
+     */
+    private SortedIndex<Service> services;
+
+    /**
+     * Maximum number of services listed, the remaining rows are used for the playback queue
+     */
+    private static final int MAX_SERVICE_ROWS = 5;
+
+    /**
+     * Number of rows shared by the service list and the playback queue
+     */
+    private static final int LIST_ROWS = 18;
 
     public StatusDisplay(final Object syncObject) {
+        this(syncObject, null);
+    }
+
+    /**
+     * Create a status display which renders to a specific terminal instead of the system terminal
+     *
+     * @param syncObject Object used to synchronize access to the player state
+     * @param terminal   The terminal to render to, or null to use the system terminal
+     */
+    public StatusDisplay(final Object syncObject, Terminal terminal) {
         this.syncObject = syncObject;
+        this.terminal = terminal;
     }
 
-    public void start(DummyPlayerManager playerManager, PlayerStatus playerStatus, Map<String, Service> services, long refreshRate) {
+    public void start(DummyPlayerManager playerManager, PlayerStatus playerStatus, SortedIndex<Service> services, long refreshRate) {
         this.playerManager = playerManager;
         this.playerStatus = playerStatus;
         this.services = services;
-        screen.startScreen();
+        synchronized (syncObject) {
+            screen = new Screen(terminal != null ? terminal : TerminalFacade.createTerminal());
+            screen.startScreen();
+        }
         // Setup refresh timer to screen are refreshed regularly
         refreshTimer.schedule(new TimerTask() {
             @Override
@@ -88,6 +123,10 @@ public class StatusDisplay {
      */
     public void refresh() {
         synchronized (syncObject) {
+            if (screen == null) {
+                // Running without user interface
+                return;
+            }
             screen.clear();
             int row = 0;
             if (playerManager != null && playerManager.hasAccessToken()) {
@@ -99,22 +138,20 @@ public class StatusDisplay {
             }
             screen.putString(0, row++, "=== Local services available ===", null, null);
 
-            List<Service> sortedServices = new ArrayList<Service>(services.values());
-            Collections.sort(sortedServices, new Comparator<Service>() {
-                @Override
-                public int compare(Service s1, Service s2) {
-                    return s1.getName().compareTo(s2.getName());
-                }
-            });
-
-            if (sortedServices.size() > 0) {
-                for (Service service : sortedServices) {
-                    Terminal.Color color = Terminal.Color.YELLOW;
-                    if (service.getServiceInformation() != null) {
-                        color = Terminal.Color.GREEN;
-                    }
-                    screen.putString(0, row++, "- " + (service.isOnlineService() ? "Online: " : "Local:  ") + service.getName() + " (" + service.getId() + ")", color, null);
+            // Only the services which fit on the screen are visited
+            List<Service> shownServices = services.window(0, MAX_SERVICE_ROWS);
+            int serviceRows = shownServices.size();
+            for (Service service : shownServices) {
+                Terminal.Color color = Terminal.Color.YELLOW;
+                if (service.getServiceInformation() != null) {
+                    color = Terminal.Color.GREEN;
                 }
+                screen.putString(0, row++, "- " + (service.isOnlineService() ? "Online: " : "Local:  ") + service.getName() + " (" + service.getId() + ")", color, null);
+            }
+            int hiddenServices = services.size() - shownServices.size();
+            if (hiddenServices > 0) {
+                screen.putString(0, row++, "  ... and " + hiddenServices + " more", null, null);
+                serviceRows++;
             }
             row++;
 
@@ -128,8 +165,9 @@ public class StatusDisplay {
                         screen.putString(0, row++, "Status: Playing (Unable to get streaming url)", Terminal.Color.RED, null);
                     }
                     screen.putString(0, row++, "Track: " + playerStatus.getCurrentPlaylistItem().getText(), null, null);
-                    if (playerStatus.getCurrentPlaylistItem().getItemAttributes().has("duration") && !playerStatus.getCurrentPlaylistItem().getItemAttributes().get("duration").isNull()) {
-                        screen.putString(0, row++, "Progress: " + playerManager.getSeekPosition().intValue() + "/" + playerStatus.getCurrentPlaylistItem().getItemAttributes().get("duration").asInt() + " seconds", null, null);
+                    Double duration = playerManager.getTrackMetadata(playerStatus.getCurrentPlaylistItem()).getDuration();
+                    if (duration != null) {
+                        screen.putString(0, row++, "Progress: " + playerManager.getSeekPosition().intValue() + "/" + duration.intValue() + " seconds", null, null);
                     } else {
                         screen.putString(0, row++, "Progress: " + playerManager.getSeekPosition().intValue() + " seconds", null, null);
                     }
@@ -150,7 +188,7 @@ public class StatusDisplay {
                     if (startPos < 0) {
                         startPos = 0;
                     }
-                    for (int i = startPos; i < (startPos + 18 - sortedServices.size()) && i < playerStatus.getPlaybackQueue().getItems().size(); i++) {
+                    for (int i = startPos; i < (startPos + LIST_ROWS - serviceRows) && i < playerStatus.getPlaybackQueue().getItems().size(); i++) {
                         if (i == playerStatus.getPlaybackQueuePos()) {
                             screen.putString(0, row++, playerStatus.getPlaybackQueue().getItems().get(i).getText(), Terminal.Color.GREEN, null);
                         } else {
@@ -176,7 +214,12 @@ public class StatusDisplay {
     }
 
     public void shutdown() {
-        screen.stopScreen();
+        synchronized (syncObject) {
+            if (screen != null) {
+                screen.stopScreen();
+                screen = null;
+            }
+        }
         refreshTimer.cancel();
     }
 }
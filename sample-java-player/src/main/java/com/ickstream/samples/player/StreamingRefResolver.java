@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import com.ickstream.protocol.common.data.StreamingReference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Resolves streaming references of tracks in the background and keeps them for a limited time, so looking up the
+ * streaming reference of a track in advance makes it available immediately when the track starts.
+ * <p/>
+ * Failed lookups aren't remembered, they are attempted again the next time the track is requested.
+ */
+public abstract class StreamingRefResolver {
+    /**
+     * Time a resolved streaming reference is used, content services might hand out urls which only work for a while
+     */
+    private static final long EXPIRY_MS = 10 * 60 * 1000;
+
+    /**
+     * Maximum number of resolved streaming references kept
+     */
+    private static final int MAX_CACHED = 500;
+
+    /**
+     * Number of threads shared by all resolvers
+     */
+    private static final int THREADS = 2;
+
+    private static ExecutorService executor;
+
+    /**
+     * Listener notified when a streaming reference has been resolved
+     */
+    public interface Listener {
+        /**
+         * Called on a background thread when the lookup has finished
+         *
+         * @param trackId      The track identity
+         * @param streamingRef The streaming reference, or null if it couldn't be resolved
+         */
+        void onResolved(String trackId, StreamingReference streamingRef);
+    }
+
+    private static class CachedRef {
+        private final StreamingReference streamingRef;
+        private final long expires;
+
+        private CachedRef(StreamingReference streamingRef, long expires) {
+            this.streamingRef = streamingRef;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<String, CachedRef> cache = new LinkedHashMap<String, CachedRef>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedRef> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    /**
+     * Listeners of lookups in progress, a track is only looked up once even if it's requested several times
+     */
+    private final Map<String, List<Listener>> inProgress = new HashMap<String, List<Listener>>();
+
+    /**
+     * Look up the streaming reference of a track, this is called on a background thread and is allowed to block
+     *
+     * @param trackId The track identity
+     * @return The streaming reference, or null if it couldn't be resolved
+     */
+    protected abstract StreamingReference fetch(String trackId);
+
+    /**
+     * Get a previously resolved streaming reference which hasn't expired yet
+     *
+     * @param trackId The track identity
+     * @return The streaming reference, or null if it hasn't been resolved or has expired
+     */
+    public synchronized StreamingReference getCached(String trackId) {
+        CachedRef cached = cache.get(trackId);
+        if (cached != null) {
+            if (cached.expires > System.currentTimeMillis()) {
+                return cached.streamingRef;
+            }
+            cache.remove(trackId);
+        }
+        return null;
+    }
+
+    /**
+     * Resolve the streaming reference of a track in the background, the listener is called directly if it's
+     * already available
+     *
+     * @param trackId  The track identity
+     * @param listener Listener to notify, or null if the reference should only be resolved in advance
+     */
+    public void resolve(final String trackId, Listener listener) {
+        StreamingReference cached;
+        synchronized (this) {
+            cached = getCached(trackId);
+            if (cached == null) {
+                List<Listener> listeners = inProgress.get(trackId);
+                if (listeners != null) {
+                    if (listener != null) {
+                        listeners.add(listener);
+                    }
+                    return;
+                }
+                listeners = new ArrayList<Listener>();
+                if (listener != null) {
+                    listeners.add(listener);
+                }
+                inProgress.put(trackId, listeners);
+            }
+        }
+        if (cached != null) {
+            if (listener != null) {
+                listener.onResolved(trackId, cached);
+            }
+            return;
+        }
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                StreamingReference streamingRef = null;
+                try {
+                    streamingRef = fetch(trackId);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                List<Listener> listeners;
+                synchronized (StreamingRefResolver.this) {
+                    if (streamingRef != null) {
+                        cache.put(trackId, new CachedRef(streamingRef, System.currentTimeMillis() + EXPIRY_MS));
+                    }
+                    listeners = inProgress.remove(trackId);
+                }
+                for (Listener listener : listeners) {
+                    listener.onResolved(trackId, streamingRef);
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "streaming-ref-resolver-" + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import com.ickstream.common.jsonrpc.JsonHelper;
+import com.ickstream.protocol.common.data.StreamingReference;
+import com.ickstream.protocol.common.data.TrackAttributes;
+import com.ickstream.protocol.service.player.PlaybackQueueItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, already parsed view of the metadata of a playback queue item which is needed while playing it.
+ * <p/>
+ * An instance is tied to the queue item it was created from and should be re-created when {@link #isFor} returns
+ * false, which happens when the item is replaced or its attributes or streaming references are replaced.
+ */
+public final class TrackMetadata {
+    private final PlaybackQueueItem item;
+    private final Object itemAttributes;
+    private final Object itemStreamingRefs;
+    private final Double duration;
+    private final String format;
+    private final List<StreamingReference> streamingRefs;
+
+    private TrackMetadata(PlaybackQueueItem item, Double duration, String format, List<StreamingReference> streamingRefs) {
+        this.item = item;
+        this.itemAttributes = item.getItemAttributes();
+        this.itemStreamingRefs = item.getStreamingRefs();
+        this.duration = duration;
+        this.format = format;
+        this.streamingRefs = streamingRefs;
+    }
+
+    /**
+     * Parse the metadata of a queue item
+     *
+     * @param item       The queue item
+     * @param jsonHelper Helper used to parse the item attributes
+     * @return The metadata of the item
+     */
+    public static TrackMetadata create(PlaybackQueueItem item, JsonHelper jsonHelper) {
+        Double duration = null;
+        if (item.getItemAttributes() != null) {
+            TrackAttributes trackAttributes = jsonHelper.jsonToObject(item.getItemAttributes(), TrackAttributes.class);
+            if (trackAttributes != null) {
+                duration = trackAttributes.getDuration();
+            }
+        }
+        List<StreamingReference> streamingRefs = null;
+        String format = null;
+        if (item.getStreamingRefs() != null) {
+            streamingRefs = Collections.unmodifiableList(new ArrayList<StreamingReference>(item.getStreamingRefs()));
+            if (streamingRefs.size() > 0) {
+                format = streamingRefs.get(0).getFormat();
+            }
+        }
+        return new TrackMetadata(item, duration, format, streamingRefs);
+    }
+
+    /**
+     * Check if this metadata still describes the specified queue item
+     *
+     * @param item The queue item
+     * @return true if the metadata was created from this item and the item hasn't been modified since
+     */
+    public boolean isFor(PlaybackQueueItem item) {
+        return this.item == item && itemAttributes == item.getItemAttributes() && itemStreamingRefs == item.getStreamingRefs();
+    }
+
+    /**
+     * Get the duration of the track
+     *
+     * @return The duration in seconds or null if unknown
+     */
+    public Double getDuration() {
+        return duration;
+    }
+
+    /**
+     * Get the format of the first streaming reference
+     *
+     * @return The format or null if there are no streaming references
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Get the streaming references delivered with the queue item
+     *
+     * @return An unmodifiable list or null if the streaming references have to be requested from the content service
+     */
+    public List<StreamingReference> getStreamingRefs() {
+        return streamingRefs;
+    }
+}
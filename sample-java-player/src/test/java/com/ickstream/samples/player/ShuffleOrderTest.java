@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2014, ickStream GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *   * Neither the name of ickStream nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ickstream.samples.player;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ShuffleOrderTest {
+
+    private static Set<Integer> range(int size) {
+        Set<Integer> positions = new HashSet<Integer>();
+        for (int i = 0; i < size; i++) {
+            positions.add(i);
+        }
+        return positions;
+    }
+
+    @Test
+    public void testEmpty() {
+        ShuffleOrder order = new ShuffleOrder(0, new Random(1));
+
+        assertEquals(-1, order.next());
+        assertEquals(-1, order.peek(0));
+        assertEquals(-1, order.previous());
+    }
+
+    @Test
+    public void testEachRoundIsAPermutation() {
+        ShuffleOrder order = new ShuffleOrder(50, new Random(1));
+        for (int round = 0; round < 3; round++) {
+            Set<Integer> seen = new HashSet<Integer>();
+            for (int i = 0; i < 50; i++) {
+                int position = order.next();
+                assertTrue("Position " + position + " played twice", seen.add(position));
+            }
+            assertEquals(range(50), seen);
+        }
+    }
+
+    @Test
+    public void testPeekPredictsNext() {
+        ShuffleOrder order = new ShuffleOrder(20, new Random(2));
+        order.next();
+        int[] peeked = new int[5];
+        for (int i = 0; i < peeked.length; i++) {
+            peeked[i] = order.peek(i);
+        }
+        for (int expected : peeked) {
+            assertEquals(expected, order.next());
+        }
+        // Peeking beyond the end of the round doesn't decide anything in the next round
+        assertEquals(-1, order.peek(14));
+    }
+
+    @Test
+    public void testPreviousWalksBackThroughTheRound() {
+        ShuffleOrder order = new ShuffleOrder(10, new Random(3));
+        int first = order.next();
+        int second = order.next();
+        order.next();
+
+        assertEquals(second, order.previous());
+        assertEquals(first, order.previous());
+        assertEquals(-1, order.previous());
+        // Moving back makes the positions upcoming again
+        assertEquals(second, order.next());
+    }
+
+    @Test
+    public void testMarkPlayedIsNotRepeatedInTheRound() {
+        ShuffleOrder order = new ShuffleOrder(10, new Random(4));
+        order.markPlayed(7);
+        order.markPlayed(7);
+        Set<Integer> seen = new HashSet<Integer>();
+        for (int i = 0; i < 9; i++) {
+            seen.add(order.next());
+        }
+        assertFalse(seen.contains(7));
+        assertEquals(9, seen.size());
+    }
+
+    @Test
+    public void testMarkPlayedKeepsPeekedOrder() {
+        ShuffleOrder order = new ShuffleOrder(20, new Random(9));
+        int current = order.next();
+        List<Integer> peeked = new ArrayList<Integer>();
+        for (int i = 0; i < 5; i++) {
+            peeked.add(order.peek(i));
+        }
+        // Select both a position which hasn't been picked yet and one of the peeked positions directly
+        int unpicked = 0;
+        while (unpicked == current || peeked.contains(unpicked)) {
+            unpicked++;
+        }
+        order.markPlayed(unpicked);
+        order.markPlayed(peeked.remove(2));
+
+        for (int expected : peeked) {
+            assertEquals(expected, order.next());
+        }
+    }
+
+    @Test
+    public void testRemapKeepsMovedPositions() {
+        ShuffleOrder order = new ShuffleOrder(6, new Random(10));
+        order.next();
+        order.next();
+        List<Integer> upcoming = new ArrayList<Integer>();
+        for (int i = 0; i < 4; i++) {
+            upcoming.add(order.peek(i));
+        }
+        // Reverse the queue and add a new item at the end
+        int[] newPositions = new int[6];
+        for (int i = 0; i < 6; i++) {
+            newPositions[i] = 5 - i;
+        }
+        order.remap(newPositions, 7);
+
+        assertEquals(7, order.size());
+        for (int position : upcoming) {
+            assertEquals(newPositions[position], order.next());
+        }
+        assertEquals(6, order.next());
+    }
+
+    @Test
+    public void testRemapDropsRemovedPositions() {
+        ShuffleOrder order = new ShuffleOrder(6, new Random(11));
+        int played = order.next();
+        List<Integer> upcoming = new ArrayList<Integer>();
+        for (int i = 0; i < 5; i++) {
+            upcoming.add(order.peek(i));
+        }
+        // Remove the played item and the next upcoming item, the others close the gaps
+        int removed = upcoming.get(0);
+        int[] newPositions = new int[6];
+        for (int i = 0, to = 0; i < 6; i++) {
+            newPositions[i] = i == played || i == removed ? -1 : to++;
+        }
+        order.remap(newPositions, 4);
+
+        assertEquals(4, order.size());
+        // The only played position has been removed, so there is nothing to go back to
+        assertEquals(-1, order.previous());
+        for (int position : upcoming) {
+            if (newPositions[position] >= 0) {
+                assertEquals(newPositions[position], order.next());
+            }
+        }
+    }
+
+    @Test
+    public void testInsertKeepsPlayedAndAddsNewPositions() {
+        ShuffleOrder order = new ShuffleOrder(10, new Random(5));
+        Set<Integer> played = new HashSet<Integer>();
+        for (int i = 0; i < 4; i++) {
+            played.add(order.next());
+        }
+        order.insert(3, 2);
+
+        // Played positions at or after the insertion point have moved
+        Set<Integer> shifted = new HashSet<Integer>();
+        for (int position : played) {
+            shifted.add(position >= 3 ? position + 2 : position);
+        }
+        Set<Integer> rest = new HashSet<Integer>();
+        for (int i = 0; i < 8; i++) {
+            int position = order.next();
+            assertFalse("Played position " + position + " repeated", shifted.contains(position));
+            assertTrue(rest.add(position));
+        }
+        assertTrue(rest.contains(3));
+        assertTrue(rest.contains(4));
+        assertEquals(12, order.size());
+    }
+
+    @Test
+    public void testRemoveKeepsOrderOfOtherPositions() {
+        ShuffleOrder order = new ShuffleOrder(10, new Random(6));
+        order.next();
+        List<Integer> upcoming = new ArrayList<Integer>();
+        for (int i = 0; i < 9; i++) {
+            upcoming.add(order.peek(i));
+        }
+        order.remove(2, 3);
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int position : upcoming) {
+            if (position < 2) {
+                expected.add(position);
+            } else if (position >= 5) {
+                expected.add(position - 3);
+            }
+        }
+        for (int position : expected) {
+            assertEquals(position, order.next());
+        }
+        assertEquals(7, order.size());
+    }
+
+    /**
+     * Random queue edits mixed with playback, tracked with item identities instead of positions
+     */
+    @Test
+    public void testRandomEditsNeverRepeatAnItemInARound() {
+        Random random = new Random(7);
+        ShuffleOrder order = new ShuffleOrder(0, new Random(8));
+        List<Integer> queue = new ArrayList<Integer>();
+        Set<Integer> played = new HashSet<Integer>();
+        int nextId = 0;
+        for (int step = 0; step < 5000; step++) {
+            int operation = random.nextInt(10);
+            if (operation < 2) {
+                int position = random.nextInt(queue.size() + 1);
+                int count = 1 + random.nextInt(3);
+                for (int i = 0; i < count; i++) {
+                    queue.add(position + i, nextId++);
+                }
+                order.insert(position, count);
+            } else if (operation < 4 && !queue.isEmpty()) {
+                int position = random.nextInt(queue.size());
+                int count = 1 + random.nextInt(Math.min(3, queue.size() - position));
+                for (int i = 0; i < count; i++) {
+                    played.remove(queue.remove(position));
+                }
+                order.remove(position, count);
+            } else if (operation < 5 && !queue.isEmpty()) {
+                int position = random.nextInt(queue.size());
+                order.markPlayed(position);
+                played.add(queue.get(position));
+            } else if (operation < 6 && !queue.isEmpty()) {
+                int upcoming = order.peek(random.nextInt(3));
+                if (upcoming >= 0) {
+                    assertFalse(played.contains(queue.get(upcoming)));
+                }
+            } else {
+                int position = order.next();
+                if (queue.isEmpty()) {
+                    assertEquals(-1, position);
+                    continue;
+                }
+                if (played.size() == queue.size()) {
+                    // A new round has started
+                    played.clear();
+                }
+                assertTrue(position >= 0 && position < queue.size());
+                assertTrue("Item " + queue.get(position) + " repeated in a round", played.add(queue.get(position)));
+            }
+            assertEquals(queue.size(), order.size());
+        }
+    }
+}